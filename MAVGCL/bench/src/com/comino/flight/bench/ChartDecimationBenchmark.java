@@ -0,0 +1,106 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.flight.model.store.SummaryPyramid;
+
+/*
+ * Decimation done by the line chart for one trace: min/max per pixel column over
+ * the visible range (as ColumnLineRenderer.traceEnvelope without drawing), and the
+ * plain sample walk used when zoomed in.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChartDecimationBenchmark {
+
+	@Param({ "36000", "720000" })
+	public int rows;
+
+	@Param({ "1000" })
+	public int pixels;
+
+	private AnalysisDataModelStore list;
+	private KeyFigureMetaData      kf;
+	private SummaryPyramid.Stats   stats = new SummaryPyramid.Stats();
+
+	@Setup
+	public void setup() throws IOException {
+		list = Fixtures.demo(rows);
+		kf   = AnalysisDataModelMetaData.getInstance().getMetaData("LPOSZ");
+	}
+
+	@Benchmark
+	public double envelope() {
+		double sum = 0; int from = 0, to = list.size(), a = from;
+		for(int p=0;p<pixels;p++) {
+			int b = from + (int)((long)(p + 1) * (to - from) / pixels);
+			if(list.getStatistics(kf, a, b, stats))
+				sum += stats.max - stats.min;
+			a = b;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double samples() {
+		double sum = 0; int to = Math.min(list.size(), 2 * pixels);
+		for(int i=0;i<to;i++)
+			sum += list.getValue(i, kf);
+		return sum;
+	}
+}
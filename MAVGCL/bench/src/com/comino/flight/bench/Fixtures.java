@@ -0,0 +1,216 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.msp.model.DataModel;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/*
+ * Inputs shared by the benchmarks: the bundled demo recording and synthetic ULog
+ * and PX4Log files generated into the temp directory.
+ */
+
+public final class Fixtures {
+
+	public static final int INTERVAL_MS = 50;
+
+	private static final String DEMO = "demo_data.mgc";
+
+	private Fixtures() { }
+
+	/*
+	 * Demo recording, replicated until it has at least 'rows' rows
+	 */
+	public static AnalysisDataModelStore demo(int rows) throws IOException {
+		AnalysisDataModelStore list = new AnalysisDataModelStore(AnalysisDataModelMetaData.getInstance());
+		List<AnalysisDataModel> models;
+		try (FileReader in = new FileReader(demoFile())) {
+			models = new Gson().fromJson(in, new TypeToken<List<AnalysisDataModel>>() {}.getType());
+		}
+		long tms = 0;
+		while(list.size() < rows) {
+			for(AnalysisDataModel m : models) {
+				m.tms = tms; tms += INTERVAL_MS * 1000;
+				list.add(m);
+			}
+		}
+		list.calculateVirtualKeyFigures(0, list.size());
+		return list;
+	}
+
+	public static File demoFile() {
+		File f = new File(System.getProperty("bench.demo", DEMO));
+		if(!f.exists())
+			throw new IllegalStateException(f.getAbsolutePath()+" not found, set -Dbench.demo");
+		return f;
+	}
+
+	/*
+	 * MSP model with all segments set to varying values
+	 */
+	public static DataModel model(int i) {
+		DataModel m = new DataModel();
+		float v = (float)Math.sin(i / 100.0);
+		m.attitude.r = v; m.attitude.p = -v; m.attitude.y = v * 3;
+		m.attitude.rr = v / 2; m.attitude.pr = v / 3; m.attitude.yr = v / 4;
+		m.state.l_x = v * 10; m.state.l_y = v * 5; m.state.l_z = -v;
+		m.hud.ag = 100 + v; m.hud.al = 10 + v;
+		m.battery.b0 = 12 - v;
+		return m;
+	}
+
+	/*
+	 * ULog with local position at 200Hz, setpoints at 50Hz, 5 gyro samples per
+	 * position and a battery update per second.
+	 */
+	public static File ulog(int seconds) throws IOException {
+		File f = File.createTempFile("bench", ".ulg");
+		f.deleteOnExit();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 1 << 16)) {
+			ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+			b.put(new byte[] { 'U', 'L', 'o', 'g', 0x01, 0x12, 0x35, 0x00 }).putLong(0);
+			flush(b, out);
+			String[] formats = {
+					"vehicle_local_position:uint64_t timestamp;float x;float y;float z;",
+					"vehicle_local_position_setpoint:uint64_t timestamp;float z;",
+					"battery_status:uint64_t timestamp;float voltage_filtered_v;",
+					"sensor_gyro:uint64_t timestamp;float x;float y;float z;uint8_t[3] _padding0;" };
+			for(String fmt : formats)
+				ulogMessage(b, out, 'F', fmt.getBytes(StandardCharsets.US_ASCII));
+			for(int i=0;i<formats.length;i++) {
+				byte[] name = formats[i].substring(0, formats[i].indexOf(':')).getBytes(StandardCharsets.US_ASCII);
+				ByteBuffer p = ByteBuffer.allocate(3 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+				p.put((byte)0).putShort((short)i).put(name);
+				ulogMessage(b, out, 'A', p.array());
+			}
+			ByteBuffer p = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+			for(int k=0;k<seconds*200;k++) {
+				long t = 1000000 + k * 5000L;
+				p.clear(); p.putShort((short)0).putLong(t).putFloat((float)Math.sin(k/100.0))
+				 .putFloat((float)Math.cos(k/100.0)).putFloat(-k/1000f);
+				ulogMessage(b, out, 'D', p);
+				if(k % 4 == 1) {
+					p.clear(); p.putShort((short)1).putLong(t + 100).putFloat(-k/1000f + 0.1f);
+					ulogMessage(b, out, 'D', p);
+				}
+				for(int g=0;g<5;g++) {
+					p.clear(); p.putShort((short)3).putLong(t + g * 1000 + 7).putFloat(1).putFloat(2).putFloat(3)
+					 .put((byte)0).put((byte)0).put((byte)0);
+					ulogMessage(b, out, 'D', p);
+				}
+				if(k % 200 == 3) {
+					p.clear(); p.putShort((short)2).putLong(t + 200).putFloat(12 - k/100000f);
+					ulogMessage(b, out, 'D', p);
+				}
+			}
+		}
+		return f;
+	}
+
+	/*
+	 * PX4Log with TIME, ATT and LPOS messages at 250Hz
+	 */
+	public static File px4log(int seconds) throws IOException {
+		File f = File.createTempFile("bench", ".px4log");
+		f.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16))) {
+			ByteBuffer b = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+			px4Format(b, out, 0x80, 89, "FMT", "BBnNZ", "Type,Length,Name,Format,Labels");
+			px4Format(b, out, 1, 3 + 8, "TIME", "Q", "StartTime");
+			px4Format(b, out, 2, 3 + 24, "ATT", "ffffff", "Roll,Pitch,Yaw,RollRate,PitchRate,YawRate");
+			px4Format(b, out, 3, 3 + 24, "LPOS", "ffffff", "X,Y,Z,VX,VY,VZ");
+			for(int k=0;k<seconds*250;k++) {
+				float v = (float)Math.sin(k / 100.0);
+				b.clear(); px4Header(b, 1).putLong(1000000 + k * 4000L); flush(b, out);
+				b.clear(); px4Header(b, 2).putFloat(v).putFloat(-v).putFloat(v*3).putFloat(v/2).putFloat(v/3).putFloat(v/4); flush(b, out);
+				b.clear(); px4Header(b, 3).putFloat(v*10).putFloat(v*5).putFloat(-v).putFloat(v).putFloat(v).putFloat(v); flush(b, out);
+			}
+		}
+		return f;
+	}
+
+	private static void ulogMessage(ByteBuffer b, OutputStream out, char type, ByteBuffer payload) throws IOException {
+		payload.flip();
+		byte[] data = new byte[payload.remaining()];
+		payload.get(data);
+		ulogMessage(b, out, type, data);
+	}
+
+	private static void ulogMessage(ByteBuffer b, OutputStream out, char type, byte[] payload) throws IOException {
+		b.clear();
+		b.putShort((short)payload.length).put((byte)type);
+		flush(b, out);
+		out.write(payload);
+	}
+
+	private static void px4Format(ByteBuffer b, OutputStream out, int type, int length, String name,
+			String format, String labels) throws IOException {
+		b.clear();
+		px4Header(b, 0x80).put((byte)type).put((byte)length);
+		b.put(padded(name, 4)).put(padded(format, 16)).put(padded(labels, 64));
+		flush(b, out);
+	}
+
+	private static ByteBuffer px4Header(ByteBuffer b, int type) {
+		return b.put((byte)0xA3).put((byte)0x95).put((byte)type);
+	}
+
+	private static byte[] padded(String s, int len) {
+		byte[] r = new byte[len];
+		byte[] c = s.getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(c, 0, r, 0, Math.min(len, c.length));
+		return r;
+	}
+
+	private static void flush(ByteBuffer b, OutputStream out) throws IOException {
+		out.write(b.array(), 0, b.position());
+	}
+}
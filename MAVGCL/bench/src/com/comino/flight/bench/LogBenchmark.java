@@ -0,0 +1,157 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.bench;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.comino.flight.log.px4log.PX4toModelConverter;
+import com.comino.flight.log.ulog.UlogtoModelConverter;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+
+import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.px4.PX4LogReader;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/*
+ * Log parsing and conversion of generated ULog and PX4Log files: raw update rate
+ * of the readers and full conversion into a store.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.SingleShotTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LogBenchmark {
+
+	@Param({ "600" })
+	public int seconds;
+
+	private File ulog;
+	private File px4log;
+	private AnalysisDataModelStore list;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		ulog   = Fixtures.ulog(seconds);
+		px4log = Fixtures.px4log(seconds);
+		list   = new AnalysisDataModelStore(AnalysisDataModelMetaData.getInstance());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ulog.delete();
+		px4log.delete();
+	}
+
+	@Benchmark
+	public long ulogReadUpdate(Blackhole bh) throws IOException, FormatErrorException {
+		ULogReader reader = new ULogReader(ulog.getAbsolutePath());
+		long count = 0;
+		try {
+			while(reader.readUpdate(Long.MAX_VALUE) >= 0) {
+				bh.consume(reader.getValues());
+				count++;
+			}
+		} catch(EOFException e) {
+			// end of log
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long px4ReadUpdate(Blackhole bh) throws IOException, FormatErrorException {
+		PX4LogReader reader = new PX4LogReader(px4log.getAbsolutePath());
+		Map<String,Object> update = new HashMap<String,Object>();
+		long count = 0;
+		try {
+			while(true) {
+				bh.consume(reader.readUpdate(update));
+				count++;
+			}
+		} catch(EOFException e) {
+			// end of log
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int ulogConversion() throws IOException, FormatErrorException {
+		ULogReader reader = new ULogReader(ulog.getAbsolutePath());
+		try {
+			new UlogtoModelConverter(reader, list, Fixtures.INTERVAL_MS).doConversion();
+		} finally {
+			reader.close();
+		}
+		return list.size();
+	}
+
+	@Benchmark
+	public int px4Conversion() throws IOException, FormatErrorException {
+		PX4LogReader reader = new PX4LogReader(px4log.getAbsolutePath());
+		try {
+			new PX4toModelConverter(reader, list, Fixtures.INTERVAL_MS).doConversion();
+		} finally {
+			reader.close();
+		}
+		return list.size();
+	}
+}
@@ -33,30 +33,35 @@
 
 package com.comino.flight.log;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
-import java.lang.reflect.Type;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.prefs.Preferences;
 
+import com.comino.flight.log.mgc.MGCReader;
+import com.comino.flight.log.mgc.MGCWriter;
 import com.comino.flight.log.px4log.PX4toModelConverter;
 import com.comino.flight.log.ulog.UlogtoModelConverter;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.parameter.PX4Parameters;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mav.control.IMAVController;
+import com.comino.msp.log.MSPLogger;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
+import javafx.application.Platform;
 import javafx.scene.Cursor;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
@@ -70,6 +75,8 @@ public class FileHandler {
 	private static final String BASEPATH = "/.MAVGCL";
 	private static final String TMPFILE  =  "/logtmp.tmp";
 
+	private static final int PROGRESS_ROWS = 2000;
+
 	private static FileHandler handler = null;
 
 	private Stage stage;
@@ -77,6 +84,7 @@ public class FileHandler {
 	private Preferences userPrefs;
 
 	private AnalysisModelService modelService = AnalysisModelService.getInstance();
+	private ExecutorService      worker       = Executors.newSingleThreadExecutor();
 
 
 	public static FileHandler getInstance() {
@@ -118,19 +126,10 @@ public class FileHandler {
 		File file = fileChooser.showOpenDialog(stage);
 		try {
 			if(file!=null) {
-				Type listType = new TypeToken<ArrayList<AnalysisDataModel>>() {}.getType();
-				Reader reader = new FileReader(file);
-				Gson gson = new GsonBuilder().create();
-				stage.getScene().setCursor(Cursor.WAIT); //Change cursor to wait style
-				ArrayList<AnalysisDataModel>modelList = gson.fromJson(reader,listType);
-				reader.close();
-				modelService.setModelList(modelList);
-				stage.getScene().setCursor(Cursor.DEFAULT);
+				readModelFile(file);
 				name = file.getName();
-				StateProperties.getInstance().getLogLoadedProperty().set(true);
-
 			}
-		} catch (IOException e) {
+		} catch (Exception e) {
 			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
 		}
 	}
@@ -163,14 +162,7 @@ public class FileHandler {
 				}
 
 				if(file.getName().endsWith("mgc")) {
-					Type listType = new TypeToken<ArrayList<AnalysisDataModel>>() {}.getType();
-					Reader reader = new FileReader(file);
-					Gson gson = new GsonBuilder().create();
-					stage.getScene().setCursor(Cursor.WAIT); //Change cursor to wait style
-					ArrayList<AnalysisDataModel>modelList = gson.fromJson(reader,listType);
-					reader.close();
-					modelService.setModelList(modelList);
-					StateProperties.getInstance().getLogLoadedProperty().set(true);
+					readModelFile(file);
 				}
 
 				stage.getScene().setCursor(Cursor.DEFAULT);
@@ -196,11 +188,8 @@ public class FileHandler {
 		File file = fileChooser.showSaveDialog(stage);
 		try {
 			if(file!=null) {
-				Writer writer = new FileWriter(file);
-				Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
 				stage.getScene().setCursor(Cursor.WAIT);
-				gson.toJson(modelService.getModelList(), writer);
-				writer.close();
+				new MGCWriter(modelService.getModelList()).write(file);
 				stage.getScene().setCursor(Cursor.DEFAULT);
 				name = file.getName();
 
@@ -220,12 +209,8 @@ public class FileHandler {
 		System.out.println("Autosave to "+f.getPath());
 		if(f.exists())
 			f.delete();
-		f.createNewFile();
-		Writer writer = new FileWriter(f);
-		Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
 		stage.getScene().setCursor(Cursor.WAIT);
-		gson.toJson(modelService.getModelList(), writer);
-		writer.close();
+		new MGCWriter(modelService.getModelList()).write(f);
 		stage.getScene().setCursor(Cursor.DEFAULT);
 	}
 
@@ -241,6 +226,69 @@ public class FileHandler {
 
 
 
+	/*
+	 * Reads binary model files, falls back to the legacy JSON format. The file is
+	 * read by a worker, rows are available to the charts while loading. State changes
+	 * are passed to the FX thread, progress returns to -1 when loading is finished.
+	 */
+	private void readModelFile(File file) {
+		StateProperties state = StateProperties.getInstance();
+		modelService.clearModelList();
+		state.getLogLoadedProperty().set(false);
+		state.getProgressProperty().set(0);
+		worker.execute(() -> {
+			boolean loaded = true;
+			try {
+				if(MGCReader.isBinary(file))
+					new MGCReader(file).read(modelService.getModelList());
+				else
+					readJSONModelFile(file);
+			} catch (Exception e) {
+				loaded = false;
+				modelService.clearModelList();
+				MSPLogger.getInstance().writeLocalMsg("Reading "+file.getName()+" failed: "+e.getMessage());
+			}
+			final boolean result = loaded;
+			Platform.runLater(() -> {
+				state.getLogLoadedProperty().set(result);
+				state.getProgressProperty().set(-1);
+			});
+		});
+	}
+
+	private void readJSONModelFile(File file) throws IOException {
+		StateProperties state = StateProperties.getInstance();
+		AnalysisDataModelStore list = modelService.getModelList();
+		TypeAdapter<AnalysisDataModel> adapter = new Gson().getAdapter(AnalysisDataModel.class);
+		float total = file.length(), progress = -1; int calculated = 0;
+
+		try (FileInputStream in = new FileInputStream(file);
+			 JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in)))) {
+			FileChannel channel = in.getChannel();
+			// legacy exports contain NaN values, which only a lenient reader accepts
+			reader.setLenient(true);
+			reader.beginArray();
+			while(reader.hasNext()) {
+				list.add(adapter.read(reader));
+				if(list.size() - calculated < PROGRESS_ROWS)
+					continue;
+				list.calculateVirtualKeyFigures(calculated, list.size());
+				calculated = list.size();
+				if(progress < 0 || channel.position() / total - progress > 0.05f) {
+					progress = channel.position() / total;
+					final float p = progress;
+					Platform.runLater(() -> {
+						state.getLogLoadedProperty().set(true);
+						state.getProgressProperty().set(p);
+					});
+				}
+			}
+			reader.endArray();
+		}
+		list.calculateVirtualKeyFigures(calculated, list.size());
+		System.out.println(list.size()+" entries read from "+file.getName());
+	}
+
 	private FileChooser getFileDialog(String title, ExtensionFilter...filter) {
 		FileChooser fileChooser = new FileChooser();
 		fileChooser.setTitle(title);
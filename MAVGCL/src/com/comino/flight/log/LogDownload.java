@@ -0,0 +1,255 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/*
+ * Target of a log download: LOG_DATA payloads are written at their offset into the
+ * pre-sized file, received chunks of 90 bytes are tracked in a bitmap. The bitmap is
+ * kept in a state file next to the log, so an interrupted download of the same log
+ * (id, size and time) resumes with the missing chunks only.
+ */
+
+public class LogDownload {
+
+	public static final int CHUNK_SIZE = 90;
+
+	private static final int STATE_MAGIC   = 0x4D47444C;   // "MGDL"
+	private static final String STATE_SUFFIX = ".part";
+
+	private final File      stateFile;
+	private final int       id;
+	private final long      size;
+	private final long      time_utc;
+	private final int       chunks;
+	private final BitSet    received;
+	private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+	private RandomAccessFile file;
+	private FileChannel      channel;
+	private int              received_chunks   = 0;
+	private long             received_bytes    = 0;
+	private long             transferred_bytes = 0;
+	private long             resumed_bytes     = 0;
+	private boolean          resumed           = false;
+
+	public LogDownload(File f, int id, long size, long time_utc) throws IOException {
+		this.stateFile = new File(f.getPath()+STATE_SUFFIX);
+		this.id        = id;
+		this.size      = size;
+		this.time_utc  = time_utc;
+		this.chunks    = (int)((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		this.received  = new BitSet(chunks);
+
+		if(f.length() == size && readState())
+			resumed = true;
+		else
+			stateFile.delete();
+
+		this.file    = new RandomAccessFile(f,"rw");
+		this.file.setLength(size);
+		this.channel = file.getChannel();
+	}
+
+	/*
+	 * Writes a LOG_DATA payload at its offset and marks the chunks it covers.
+	 * Returns true, if the log is complete.
+	 */
+	public synchronized boolean write(long ofs, int count, int[] data) throws IOException {
+		if(ofs < 0 || ofs >= size || count <= 0)
+			return isComplete();
+		count = (int)Math.min(Math.min(count, data.length), Math.min(CHUNK_SIZE, size - ofs));
+
+		buffer.clear();
+		for(int i=0;i<count;i++)
+			buffer.put((byte)data[i]);
+		buffer.flip();
+		long pos = ofs;
+		while(buffer.hasRemaining())
+			pos += channel.write(buffer, pos);
+		transferred_bytes += count;
+
+		for(int c = (int)((ofs + CHUNK_SIZE - 1) / CHUNK_SIZE); c < chunks; c++) {
+			long start = (long)c * CHUNK_SIZE; long len = Math.min(CHUNK_SIZE, size - start);
+			if(start + len > ofs + count)
+				break;
+			if(!received.get(c)) {
+				received.set(c);
+				received_chunks++;
+				received_bytes += len;
+			}
+		}
+		return isComplete();
+	}
+
+	/*
+	 * Returns the first missing range as {offset, count} with at most max_bytes, or null
+	 * if the log is complete. Runs of up to 'bridge' received chunks between missing ones
+	 * are included, re-sending them is cheaper than another request.
+	 */
+	public synchronized long[] nextGap(int max_bytes, int bridge) {
+		return nextGap(max_bytes, bridge, size);
+	}
+
+	/*
+	 * As above, but for the part of the log before offset 'before' only.
+	 */
+	public synchronized long[] nextGap(int max_bytes, int bridge, long before) {
+		int c = received.nextClearBit(0);
+		int last = (int)Math.min(chunks, (before + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		if(c >= last)
+			return null;
+		int limit = Math.min(last, c + Math.max(1, max_bytes / CHUNK_SIZE));
+		int end = c + 1;
+		while(end < limit) {
+			int next = received.nextClearBit(end);
+			if(next >= limit || next - end > bridge)
+				break;
+			end = received.nextSetBit(next);
+			if(end < 0 || end > limit)
+				end = limit;
+		}
+		long ofs = (long)c * CHUNK_SIZE;
+		return new long[] { ofs, Math.min((long)end * CHUNK_SIZE, size) - ofs };
+	}
+
+	public synchronized boolean isComplete() {
+		return received_chunks == chunks;
+	}
+
+	public synchronized long getReceivedBytes() {
+		return received_bytes;
+	}
+
+	/* all bytes written in this session, including chunks received more than once */
+	public synchronized long getTransferredBytes() {
+		return transferred_bytes;
+	}
+
+	/* bytes of this session received more than once */
+	public synchronized long getResentBytes() {
+		return Math.max(0, transferred_bytes - (received_bytes - resumed_bytes));
+	}
+
+	/* length of the received part without gaps from the start of the log */
+	public synchronized long getContiguousBytes() {
+		return Math.min((long)received.nextClearBit(0) * CHUNK_SIZE, size);
+	}
+
+	/* offset of the first missing chunk at or after 'ofs', -1 if there is none */
+	public synchronized long nextMissing(long ofs) {
+		int c = received.nextClearBit((int)(ofs / CHUNK_SIZE));
+		return c >= chunks ? -1 : (long)c * CHUNK_SIZE;
+	}
+
+	/* allows reading received data while downloading */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	public synchronized void saveState() {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateFile)))) {
+			out.writeInt(STATE_MAGIC);
+			out.writeInt(id);
+			out.writeLong(size);
+			out.writeLong(time_utc);
+			long[] words = received.toLongArray();
+			out.writeInt(words.length);
+			for(long w : words)
+				out.writeLong(w);
+		} catch (IOException e) {
+			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+		}
+	}
+
+	/*
+	 * Closes the file. The state is kept for a later resume unless the log is complete.
+	 */
+	public synchronized void close() {
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException e) {
+			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+		}
+		if(isComplete())
+			stateFile.delete();
+		else
+			saveState();
+	}
+
+	private boolean readState() {
+		if(!stateFile.isFile())
+			return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+			if(in.readInt()!=STATE_MAGIC || in.readInt()!=id || in.readLong()!=size || in.readLong()!=time_utc)
+				return false;
+			long[] words = new long[in.readInt()];
+			for(int i=0;i<words.length;i++)
+				words[i] = in.readLong();
+			BitSet state = BitSet.valueOf(words);
+			for(int c = state.nextSetBit(0); c >= 0 && c < chunks; c = state.nextSetBit(c+1)) {
+				received.set(c);
+				received_chunks++;
+				received_bytes += Math.min(CHUNK_SIZE, size - (long)c * CHUNK_SIZE);
+			}
+			resumed_bytes = received_bytes;
+			return true;
+		} catch (IOException e) {
+			System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+			return false;
+		}
+	}
+}
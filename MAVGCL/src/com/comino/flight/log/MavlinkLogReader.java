@@ -34,14 +34,14 @@
 
 package com.comino.flight.log;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.mavlink.messages.lquac.msg_log_data;
 import org.mavlink.messages.lquac.msg_log_entry;
@@ -50,6 +50,7 @@ import org.mavlink.messages.lquac.msg_log_request_end;
 import org.mavlink.messages.lquac.msg_log_request_list;
 
 import com.comino.flight.log.px4log.PX4toModelConverter;
+import com.comino.flight.log.ulog.UlogStreamConverter;
 import com.comino.flight.log.ulog.UlogtoModelConverter;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.observables.StateProperties;
@@ -58,29 +59,60 @@ import com.comino.mav.control.IMAVController;
 import com.comino.msp.log.MSPLogger;
 import com.comino.msp.main.control.listener.IMAVLinkListener;
 
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import me.drton.jmavlib.log.px4.PX4LogReader;
 import me.drton.jmavlib.log.ulog.ULogReader;
 
+/*
+ * Downloads the last log of the vehicle. The whole log is requested at once, payloads
+ * are written at their offset by LogDownload. Ranges lost on the link are re-requested
+ * in windows, either when the current request is served or when the stream stalls.
+ * Gaps holding back the conversion are filled early, up to where the stream was
+ * interrupted. The rest of the log is then requested again as one stream.
+ * A cancelled or timed out download of the same log resumes on the next request.
+ * ULogs are converted while downloading as far as received without gaps, PX4Logs
+ * after the download. Load state and progress are set on the FX thread, progress
+ * returns to -1 when the log is converted.
+ */
+
 public class MavlinkLogReader implements IMAVLinkListener {
 
+	private static final String DOWNLOAD_FILE = "/logdownload.tmp";
+
+	private static final int  WINDOW_BYTES = 64 * 1024;
+	private static final int  BRIDGE       = 8;
+	private static final long STALL_MS     = 500;
+	private static final long TIMEOUT_MS   = 10000;
+	private static final long SAVE_MS      = 5000;
+	private static final long WATCH_MS     = 100;
+	private static final int  STREAM_BYTES = 32 * 1024;
+	private static final int  STREAM_LAG   = 4 * WINDOW_BYTES;
+
 	private IMAVController control = null;
 	private int     last_log_id   = 0;
-	private long  log_bytes_read  = 0;
-	private long  log_bytes_total = 0;
 
-	private File tmpfile = null;
-	private BufferedOutputStream out = null;
+	private LogDownload download = null;
+	private UlogStreamConverter stream = null;
 
 	private BooleanProperty isCollecting = new SimpleBooleanProperty();
 	private AnalysisModelService collector = AnalysisModelService.getInstance();
 
-	private long tms = 0;
-	private long start = 0;
-	private long time_utc=0;
-
-	private FutureTask<Void> to = null;
+	private long start        = 0;
+	private long time_utc     = 0;
+	private long last_data    = 0;
+	private long last_request = 0;
+	private long last_save    = 0;
+	private long last_progress= 0;
+	private long request_end  = 0;
+	private long resume_ofs   = 0;
+	private int  requests     = 0;
+
+	private ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+	private ScheduledFuture<?>       watch    = null;
+	private ExecutorService          worker   = Executors.newSingleThreadExecutor();
+	private AtomicBoolean            pending  = new AtomicBoolean();
 	private StateProperties state = null;
 
 	public MavlinkLogReader(IMAVController control) {
@@ -89,21 +121,11 @@ public class MavlinkLogReader implements IMAVLinkListener {
 		this.state = StateProperties.getInstance();
 	}
 
-	public void requestLastLog() {
+	public synchronized void requestLastLog() {
 
-		try {
-			this.tmpfile = FileHandler.getInstance().getTempFile();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		to = new FutureTask<Void>(() -> {
-			System.out.println("Timout reading log from device");
-			cancel();
-			return null;
-		});
-		log_bytes_read = 0; log_bytes_total = 0;
+		download = null; stream = null; requests = 0;
 		start = System.currentTimeMillis();
+		last_data = start; last_request = start;
 		isCollecting.set(true);
 		msg_log_request_list msg = new msg_log_request_list(255,1);
 		msg.target_component = 1;
@@ -113,22 +135,25 @@ public class MavlinkLogReader implements IMAVLinkListener {
 		state.getLogLoadedProperty().set(false);
 		FileHandler.getInstance().setName("Log loading..");
 		MSPLogger.getInstance().writeLocalMsg("Request log from vehicle");
-		Executors.newSingleThreadScheduledExecutor().schedule(to,10,TimeUnit.SECONDS);
+		watch = watchdog.scheduleAtFixedRate(this::watch, WATCH_MS, WATCH_MS, TimeUnit.MILLISECONDS);
 	}
 
-	public void cancel() {
-
-		if(!to.cancel(true))
-			System.out.println("LOG Worker thread cancelling failed");
+	public synchronized void cancel() {
 
 		if(!isCollecting.get())
 			return;
 
-		try {
-			out.close();
-		} catch (Exception e) {  }
+		stopWatch();
+		if(download!=null) {
+			download.close();
+			download = null;
+		}
+		stream = null;
 		sendEndNotice();
-		state.getLogLoadedProperty().set(false);
+		Platform.runLater(() -> {
+			state.getLogLoadedProperty().set(false);
+			state.getProgressProperty().set(-1);
+		});
 		MSPLogger.getInstance().writeLocalMsg("Loading log from vehicle cancelled");
 	}
 
@@ -137,109 +162,282 @@ public class MavlinkLogReader implements IMAVLinkListener {
 
 
 		if( o instanceof msg_log_entry) {
+			synchronized(this) {
+
+				if(!isCollecting.get() || download!=null)
+					return;
+
+				msg_log_entry entry = (msg_log_entry) o;
+				last_log_id = entry.num_logs - 1;
+
+				if(last_log_id > -1) {
+					if(entry.id != last_log_id) {
+						msg_log_request_list msg = new msg_log_request_list(255,1);
+						msg.target_component = 1;
+						msg.target_system = 1;
+						msg.start= last_log_id;
+						msg.end = last_log_id;
+						control.sendMAVLinkMessage(msg);
+					}
+					else {
+						time_utc = entry.time_utc;
+						try {
+							download = new LogDownload(getDownloadFile(), last_log_id, entry.size, time_utc);
+						} catch (IOException e) {
+							MSPLogger.getInstance().writeLocalMsg("Loading log failed: "+e.getMessage());
+							cancel();
+							return;
+						}
+						start = System.currentTimeMillis(); last_data = start;
+						resume_ofs = entry.size;
+						if(MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false)) {
+							collector.clearModelList();
+							stream = new UlogStreamConverter(collector.getModelList(), collector.getCollectorInterval_ms());
+						}
+						if(download.isComplete())
+							finish();
+						else if(download.isResumed()) {
+							MSPLogger.getInstance().writeLocalMsg(
+									"Resuming log from vehicle ("+last_log_id+") - "+(download.getReceivedBytes()/1024)
+									+" of "+(entry.size/1024)+" kb");
+							requestGap();
+						} else {
+							MSPLogger.getInstance().writeLocalMsg(
+									"Loading log from vehicle ("+last_log_id+") - Size: "+(entry.size/1024)+" kb");
+							request(0, entry.size);
+						}
+					}
+				}
+			}
+		}
 
-			if(!isCollecting.get())
-				return;
+		if( o instanceof msg_log_data) {
 
-			msg_log_entry entry = (msg_log_entry) o;
-			last_log_id = entry.num_logs - 1;
-
-			if(last_log_id > -1) {
-				if(entry.id != last_log_id) {
-					msg_log_request_list msg = new msg_log_request_list(255,1);
-					msg.target_component = 1;
-					msg.target_system = 1;
-					msg.start= last_log_id;
-					msg.end = last_log_id;
-					control.sendMAVLinkMessage(msg);
+			msg_log_data data = (msg_log_data) o;
+			synchronized(this) {
+
+				if(!isCollecting.get() || download==null || data.id != last_log_id)
+					return;
+
+				boolean complete;
+				try {
+					complete = download.write(data.ofs, data.count, data.data);
+				} catch (IOException e) {
+					MSPLogger.getInstance().writeLocalMsg("Loading log failed: "+e.getMessage());
+					cancel();
+					return;
 				}
-				else {
-					to.cancel(true);
-					time_utc = entry.time_utc;
-					try {
-						out = new BufferedOutputStream(new FileOutputStream(tmpfile));
-					} catch (FileNotFoundException e) { cancel(); }
-					log_bytes_read = 0; log_bytes_total = entry.size;
-					MSPLogger.getInstance().writeLocalMsg(
-							"Loading log from vehicle ("+last_log_id+") - Size: "+(entry.size/1024)+" kb");
-					msg_log_request_data msg = new msg_log_request_data(255,1);
-					msg.target_component = 1;
-					msg.target_system = 1;
-					msg.id = last_log_id;
-					msg.count = Long.MAX_VALUE;
-					control.sendMAVLinkMessage(msg);
+				last_data = System.currentTimeMillis();
+
+				if(last_data - last_progress > 500) {
+					float progress = getProgress()/100f;
+					Platform.runLater(() -> state.getProgressProperty().set(progress));
+					last_progress = last_data;
 				}
+
+				if(complete) {
+					finish();
+					return;
+				}
+				// a lost chunk holds back the conversion, fill it early while streaming
+				if(data.ofs + data.count == request_end)
+					requestGap();
+				else if(stream!=null && resume_ofs == download.getSize() && data.ofs < request_end
+						&& data.ofs - download.getContiguousBytes() > STREAM_LAG) {
+					resume_ofs = data.ofs + data.count;
+					requestGap();
+				}
+				if(stream!=null)
+					convertStream();
 			}
 		}
+	}
 
-		if( o instanceof msg_log_data) {
+	public int getProgress() {
+		LogDownload d = download;
+		if(d==null || d.getSize()==0)
+			return 0;
+		return (int)((d.getReceivedBytes() * 100) / d.getSize());
+	}
 
-			if(!isCollecting.get())
-				return;
+	public BooleanProperty isCollecting() {
+		return isCollecting;
+	}
 
-			msg_log_data data = (msg_log_data) o;
+	/*
+	 * Re-requests missing data if the stream stalls, times out if nothing is received at all.
+	 */
+	private synchronized void watch() {
+		if(!isCollecting.get())
+			return;
+		long now = System.currentTimeMillis();
+		if(now - last_data > TIMEOUT_MS) {
+			MSPLogger.getInstance().writeLocalMsg(download!=null
+					? "Timeout reading log from device, request again to resume"
+					: "Timeout reading log from device");
+			cancel();
+			return;
+		}
+		if(download==null)
+			return;
+		if(now - Math.max(last_data, last_request) > STALL_MS)
+			requestGap();
+		if(now - last_save > SAVE_MS) {
+			download.saveState();
+			last_save = now;
+		}
+	}
 
-			for(int i=0;i< data.count;i++) {
-				try {
-					out.write(data.data[i]);
-					out.flush();
-				} catch (IOException e) { cancel(); }
+	/*
+	 * Requests the next missing window. If the stream was interrupted by early fills,
+	 * only gaps before that position are requested, then the stream is continued.
+	 */
+	private void requestGap() {
+		long[] gap = download.nextGap(WINDOW_BYTES, BRIDGE, resume_ofs);
+		if(gap!=null) {
+			request(gap[0], gap[1]);
+			return;
+		}
+		if(resume_ofs < download.getSize()) {
+			long ofs = download.nextMissing(resume_ofs);
+			resume_ofs = download.getSize();
+			if(ofs >= 0) {
+				request(ofs, download.getSize() - ofs);
+				return;
 			}
-			log_bytes_read = data.ofs;
+		}
+		gap = download.nextGap(WINDOW_BYTES, BRIDGE);
+		if(gap!=null)
+			request(gap[0], gap[1]);
+	}
 
-			if((System.currentTimeMillis()-tms)>5000) {
-				System.out.print(".");
-				state.getProgressProperty().set(getProgress()/100f);
-				tms = System.currentTimeMillis();
+	/*
+	 * Converts the gapless part received so far by the worker, charts show it while
+	 * the rest is downloading. On errors the log is converted after the download.
+	 */
+	private void convertStream() {
+		LogDownload d = download; UlogStreamConverter s = stream;
+		if(d.getContiguousBytes() - s.getPosition() < STREAM_BYTES || !pending.compareAndSet(false, true))
+			return;
+		worker.execute(() -> {
+			try {
+				if(s.convert(d.getChannel(), d.getContiguousBytes()) > 0)
+					Platform.runLater(() -> state.getLogLoadedProperty().set(true));
+			} catch (IOException e) {
+				// download cancelled
+			} catch (Exception e) {
+				System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+				synchronized(this) {
+					if(stream==s)
+						stream = null;
+				}
 			}
+			pending.set(false);
+		});
+	}
+
+	private void request(long ofs, long count) {
+		msg_log_request_data msg = new msg_log_request_data(255,1);
+		msg.target_component = 1;
+		msg.target_system = 1;
+		msg.id = last_log_id;
+		msg.ofs = ofs;
+		msg.count = count;
+		control.sendMAVLinkMessage(msg);
+		request_end  = ofs + count;
+		last_request = System.currentTimeMillis();
+		requests++;
+	}
+
+	private void finish() {
+		stopWatch();
+		LogDownload d = download; UlogStreamConverter s = stream;
+		long transferred = d.getTransferredBytes(), resent = d.getResentBytes();
+		File file = getDownloadFile();
+		download = null; stream = null;
 
-			if(log_bytes_read >= (log_bytes_total-90)) {
+		sendEndNotice();
+		if(s==null) {
+			d.close();
+			convertFile(file, transferred, resent);
+			return;
+		}
+		worker.execute(() -> {
+			try {
+				s.convert(d.getChannel(), d.getSize());
+				s.finish();
+				d.close();
+				file.delete();
+				loaded(transferred, resent);
+			} catch (Exception e) {
+				System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+				d.close();
+				convertFile(file, transferred, resent);
+			}
+		});
+	}
+
+	/*
+	 * Converts the finished download through the heap backend, so no mapping keeps
+	 * the file alive and it is deleted right away.
+	 */
+	private void convertFile(File file, long transferred, long resent) {
+		try {
+			collector.clearModelList();
+			if(!MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false)) {
+				PX4LogReader reader = new PX4LogReader(file.getAbsolutePath(), false);
 				try {
-					System.out.println();
-					out.flush();
-					out.close();
-				} catch (IOException e) { cancel();  }
+					new PX4toModelConverter(reader,collector.getModelList()).doConversion();
+				} finally {
+					reader.close();
+				}
+			} else {
+				ULogReader reader = new ULogReader(file.getAbsolutePath(), false);
 				try {
-					collector.clearModelList();
-					sendEndNotice();
-					Thread.sleep(100);
-					if(!MAVPreferences.getInstance().getBoolean(MAVPreferences.ULOGGER, false)) {
-						PX4LogReader reader = new PX4LogReader(tmpfile.getAbsolutePath());
-						PX4toModelConverter converter = new PX4toModelConverter(reader,collector.getModelList());
-						converter.doConversion();
-						reader.close();
-					} else {
-						ULogReader reader = new ULogReader(tmpfile.getAbsolutePath());
-						UlogtoModelConverter converter = new UlogtoModelConverter(reader,collector.getModelList());
-						converter.doConversion();
-						reader.close();
-					}
-					long speed = log_bytes_total * 1000 / ( 1024 * (System.currentTimeMillis() - start));
-					MSPLogger.getInstance().writeLocalMsg("Reading log from device finished ("+speed+" kbtyes/sec)");
-					state.getLogLoadedProperty().set(true);
-					FileHandler.getInstance().setName("Log-"+last_log_id+"-"+time_utc);
-				} catch (Exception e) {
-					sendEndNotice();
-					state.getLogLoadedProperty().set(false);
-					MSPLogger.getInstance().writeLocalMsg("Loading log failed: "+e.getMessage());
+					new UlogtoModelConverter(reader,collector.getModelList()).doConversion();
+				} finally {
+					reader.close();
 				}
-				state.getLogLoadedProperty().set(true);
 			}
+			loaded(transferred, resent);
+		} catch (Exception e) {
+			failed(e);
 		}
+		file.delete();
 	}
 
-	public int getProgress() {
-		return (int)((log_bytes_read * 100) / log_bytes_total);
+	private void loaded(long transferred, long resent) {
+		long ms = Math.max(1, last_data - start);
+		MSPLogger.getInstance().writeLocalMsg("Reading log from device finished ("+(transferred * 1000 / ( 1024 * ms))
+				+" kbytes/sec, "+requests+" requests, "+resent/1024+" kb resent)");
+		Platform.runLater(() -> {
+			state.getLogLoadedProperty().set(true);
+			state.getProgressProperty().set(-1);
+		});
+		FileHandler.getInstance().setName("Log-"+last_log_id+"-"+time_utc);
 	}
 
-	public BooleanProperty isCollecting() {
-		return isCollecting;
+	private void failed(Exception e) {
+		Platform.runLater(() -> {
+			state.getLogLoadedProperty().set(false);
+			state.getProgressProperty().set(-1);
+		});
+		MSPLogger.getInstance().writeLocalMsg("Loading log failed: "+e.getMessage());
+	}
+
+	private File getDownloadFile() {
+		return new File(FileHandler.getInstance().getBasePath()+DOWNLOAD_FILE);
+	}
+
+	private void stopWatch() {
+		if(watch!=null)
+			watch.cancel(false);
+		watch = null;
 	}
 
 	private void sendEndNotice() {
 		FileHandler.getInstance().setName("");
 		isCollecting.set(false);
-		state.getProgressProperty().set(-1);
 		msg_log_request_end msg = new msg_log_request_end(255,1);
 		msg.target_component = 1;
 		msg.target_system = 1;
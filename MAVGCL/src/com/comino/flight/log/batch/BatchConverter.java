@@ -0,0 +1,246 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.comino.flight.log.csv.CSVWriter;
+import com.comino.flight.log.mgc.MGCReader;
+import com.comino.flight.log.mgc.MGCWriter;
+import com.comino.flight.log.px4log.PX4toModelConverter;
+import com.comino.flight.log.ulog.UlogtoModelConverter;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+
+import me.drton.jmavlib.log.px4.PX4LogReader;
+import me.drton.jmavlib.log.ulog.ULogReader;
+
+/*
+ * Headless conversion of ULog, PX4Log and binary MGC files into MGC or CSV. Files
+ * found in the given files or directories are converted in parallel; submission
+ * blocks when the queue is full. The rows of each file beyond the memory cap are
+ * spilled to a temporary file. Existing outputs newer than their input are skipped.
+ *
+ * Usage: BatchConverter [-f mgc|csv] [-o dir] [-j threads] [-q queue] [-m MB]
+ *                       [-i interval_ms] [-force] file|dir ...
+ */
+
+public class BatchConverter {
+
+	private static final String[] INPUTS = { ".ulg", ".px4log", ".mgc" };
+
+	private String format      = "mgc";
+	private File   output      = null;
+	private int    threads     = Runtime.getRuntime().availableProcessors();
+	private int    queue       = 2 * Runtime.getRuntime().availableProcessors();
+	private int    memory_mb   = 256;
+	private int    interval_ms = 50;
+	private boolean force      = false;
+
+	private final AtomicInteger done    = new AtomicInteger();
+	private final AtomicInteger failed  = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicLong    rows    = new AtomicLong();
+	private final AtomicLong    bytes   = new AtomicLong();
+
+	public static void main(String[] args) {
+		BatchConverter batch = new BatchConverter();
+		List<File> inputs = new ArrayList<File>();
+		try {
+			for(int i=0;i<args.length;i++) {
+				switch(args[i]) {
+				case "-f": batch.format = args[++i].toLowerCase(Locale.ROOT); break;
+				case "-o": batch.output = new File(args[++i]); break;
+				case "-j": batch.threads = Integer.parseInt(args[++i]); break;
+				case "-q": batch.queue = Integer.parseInt(args[++i]); break;
+				case "-m": batch.memory_mb = Integer.parseInt(args[++i]); break;
+				case "-i": batch.interval_ms = Integer.parseInt(args[++i]); break;
+				case "-force": batch.force = true; break;
+				default: inputs.add(new File(args[i]));
+				}
+			}
+		} catch(RuntimeException e) {
+			inputs.clear();
+		}
+		if(inputs.isEmpty() || !(batch.format.equals("mgc") || batch.format.equals("csv"))) {
+			System.err.println("Usage: BatchConverter [-f mgc|csv] [-o dir] [-j threads] [-q queue] [-m MB] "
+					+ "[-i interval_ms] [-force] file|dir ...");
+			System.exit(1);
+		}
+		try {
+			System.exit(batch.convert(inputs) ? 0 : 2);
+		} catch(Exception e) {
+			System.err.println(BatchConverter.class.getSimpleName()+":"+e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Returns false if any file failed.
+	 */
+	public boolean convert(List<File> inputs) throws IOException, InterruptedException {
+		List<File[]> jobs = new ArrayList<File[]>();
+		for(File in : inputs)
+			collect(in, jobs);
+
+		AnalysisDataModelMetaData.getInstance();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		Semaphore slots = new Semaphore(Math.max(1, threads) + Math.max(0, queue));
+		long start = System.nanoTime();
+
+		for(File[] job : jobs) {
+			slots.acquire();
+			pool.execute(() -> {
+				try {
+					convert(job[0], job[1], jobs.size());
+				} finally {
+					slots.release();
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT,
+				"%d files converted, %d skipped, %d failed in %.1fs: %.1f MB/s, %.0f rows/s",
+				done.get(), skipped.get(), failed.get(), secs,
+				bytes.get() / 1e6 / secs, rows.get() / secs));
+		return failed.get() == 0;
+	}
+
+	private void convert(File in, File out, int total) {
+		long t = System.nanoTime();
+		AnalysisDataModelStore list = new AnalysisDataModelStore(AnalysisDataModelMetaData.getInstance());
+		int slots = AnalysisDataModelMetaData.getInstance().getSlotCount();
+		list.setSpill(new File(System.getProperty("java.io.tmpdir")),
+				(int)Math.min(Integer.MAX_VALUE, memory_mb * 1024L * 1024L / (4L * Math.max(1, slots))));
+		try {
+			String name = in.getName().toLowerCase(Locale.ROOT);
+			if(name.endsWith(".ulg")) {
+				ULogReader reader = new ULogReader(in.getAbsolutePath());
+				try {
+					new UlogtoModelConverter(reader, list, interval_ms).doConversion();
+				} finally {
+					reader.close();
+				}
+			} else if(name.endsWith(".px4log")) {
+				PX4LogReader reader = new PX4LogReader(in.getAbsolutePath());
+				try {
+					new PX4toModelConverter(reader, list, interval_ms).doConversion();
+				} finally {
+					reader.close();
+				}
+			} else {
+				if(!MGCReader.isBinary(in))
+					throw new IOException("legacy JSON format not supported");
+				new MGCReader(in).read(list);
+			}
+
+			if(list.size() == 0)
+				throw new IOException("no data");
+
+			out.getParentFile().mkdirs();
+			if(format.equals("csv"))
+				new CSVWriter(list).write(out);
+			else
+				new MGCWriter(list).write(out);
+
+			rows.addAndGet(list.size());
+			bytes.addAndGet(in.length());
+			System.out.println(String.format(Locale.ROOT, "[%d/%d] %s: %d rows in %dms",
+					done.incrementAndGet() + failed.get(), total, in.getPath(),
+					list.size(), (System.nanoTime() - t) / 1000000));
+		} catch(Exception e) {
+			failed.incrementAndGet();
+			out.delete();
+			System.err.println(in.getPath()+":"+e.getMessage());
+		} finally {
+			list.dispose();
+		}
+	}
+
+	private void collect(File in, List<File[]> jobs) throws IOException {
+		if(in.isDirectory()) {
+			Path base = in.toPath();
+			List<Path> files;
+			try (Stream<Path> s = Files.walk(base)) {
+				files = s.filter(p -> isInput(p.toFile())).sorted().collect(Collectors.toList());
+			}
+			for(Path p : files) {
+				File dir = output != null ? new File(output, base.relativize(p).toString()).getParentFile()
+						: p.toFile().getParentFile();
+				add(p.toFile(), dir, jobs);
+			}
+		} else if(isInput(in))
+			add(in, output != null ? output : in.getAbsoluteFile().getParentFile(), jobs);
+	}
+
+	private void add(File in, File dir, List<File[]> jobs) {
+		String name = in.getName();
+		File out = new File(dir, name.substring(0, name.lastIndexOf('.')) + "." + format);
+		if(out.getAbsoluteFile().equals(in.getAbsoluteFile()))
+			return;
+		if(!force && out.exists() && out.lastModified() >= in.lastModified()) {
+			skipped.incrementAndGet();
+			return;
+		}
+		jobs.add(new File[] { in, out });
+	}
+
+	private boolean isInput(File f) {
+		String name = f.getName().toLowerCase(Locale.ROOT);
+		for(String ext : INPUTS) {
+			if(name.endsWith(ext))
+				return f.isFile();
+		}
+		return false;
+	}
+
+}
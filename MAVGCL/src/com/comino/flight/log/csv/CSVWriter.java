@@ -0,0 +1,116 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.csv;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.msp.model.segment.LogMessage;
+
+/*
+ * Writes a recording as comma separated values: time in seconds, one column per
+ * keyfigure with data (header is the key) and the message of the row, if any.
+ * Missing values are left empty. Columns are read chunk-wise.
+ */
+
+public class CSVWriter {
+
+	private static final char SEPARATOR = ',';
+
+	private AnalysisDataModelStore list;
+
+	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+	public CSVWriter(AnalysisDataModelStore list) {
+		this.list = list;
+	}
+
+	public void write(File file) throws IOException {
+
+		AnalysisDataModelStore.Snapshot list = this.list.snapshot();
+		int rows = list.size();
+
+		List<KeyFigureMetaData> kfs = new ArrayList<KeyFigureMetaData>();
+		for(KeyFigureMetaData kf : meta.getKeyFigures()) {
+			if(list.hasData(kf))
+				kfs.add(kf);
+		}
+
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+			StringBuilder line = new StringBuilder(16 * (kfs.size() + 2));
+			line.append("Time[s]");
+			for(KeyFigureMetaData kf : kfs)
+				line.append(SEPARATOR).append(kf.getKey());
+			line.append(SEPARATOR).append("Message").append('\n');
+			out.write(line.toString());
+
+			float[][] chunks = new float[kfs.size()][];
+			for(int c=0;c * AnalysisDataModelStore.CHUNK_SIZE < rows;c++) {
+				for(int k=0;k<kfs.size();k++)
+					chunks[k] = list.getChunk(kfs.get(k), c);
+				int from = c * AnalysisDataModelStore.CHUNK_SIZE;
+				int to   = Math.min(rows, from + AnalysisDataModelStore.CHUNK_SIZE);
+				for(int i=from;i<to;i++) {
+					line.setLength(0);
+					line.append(list.getTms(i) / 1e6);
+					for(int k=0;k<chunks.length;k++) {
+						line.append(SEPARATOR);
+						float v = chunks[k] != null ? chunks[k][i - from] : Float.NaN;
+						if(!Float.isNaN(v))
+							line.append(v);
+					}
+					line.append(SEPARATOR);
+					LogMessage msg = list.getMessage(i);
+					if(msg != null && msg.msg != null)
+						line.append('"').append(msg.msg.replace("\"", "\"\"")).append('"');
+					line.append('\n');
+					out.write(line.toString());
+				}
+			}
+		}
+		System.out.println(rows+" entries with "+kfs.size()+" keyfigures written to "+file.getName());
+	}
+
+}
@@ -0,0 +1,109 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.mgc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.flight.model.store.ChunkCodec;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+
+/*
+ * Layout of a binary MAVGCL model file (version 2), all values big endian:
+ *
+ * Header:      int magic 'MGC2', int version, int rows, int block_rows, int columns,
+ *              long message_ofs, int message_len
+ * Time index:  per block: long first_tms, long ofs, int len
+ * Dictionary:  per column: int hash, UTF key, per block: long ofs, int len
+ * Blocks:      deflated column blocks. Floats are stored XOR'ed with their predecessor,
+ *              timestamps as delta to the predecessor
+ * Messages:    UTF-8 JSON array of message/status entries
+ */
+
+final class MGCFormat {
+
+	static final int MAGIC      = 0x4D474332;
+	static final int VERSION    = 2;
+	static final int BLOCK_ROWS = AnalysisDataModelStore.CHUNK_SIZE;
+
+	static final int HEADER_SIZE = 5 * 4 + 8 + 4;
+	static final int INDEX_SIZE  = 8 + 8 + 4;
+	static final int BLOCK_SIZE  = 8 + 4;
+
+	private MGCFormat() { }
+
+	static int blocks(int rows) {
+		return (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+	}
+
+	static byte[] encodeFloats(float[] column, int from, int to) {
+		return ChunkCodec.encodeFloats(column, from, to);
+	}
+
+	static void decodeFloats(byte[] data, float[] column, int from, int to) throws IOException {
+		ChunkCodec.decodeFloats(data, column, from, to);
+	}
+
+	static byte[] encodeTms(long[] tms, int from, int to) {
+		ByteBuffer b = ByteBuffer.allocate((to - from) * 8);
+		long last = tms[from];
+		for(int i=from;i<to;i++) {
+			b.putLong(tms[i] - last);
+			last = tms[i];
+		}
+		return ChunkCodec.deflate(b.array());
+	}
+
+	static void decodeTms(byte[] data, long first, long[] tms, int from, int to) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(ChunkCodec.inflate(data, (to - from) * 8));
+		long last = first;
+		for(int i=from;i<to;i++) {
+			last = last + b.getLong();
+			tms[i] = last;
+		}
+	}
+
+	static class Entry {
+		int        row;
+		LogMessage msg;
+		Status     status;
+
+		Entry(int row, LogMessage msg, Status status) {
+			this.row = row; this.msg = msg; this.status = status;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.mgc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/*
+ * Reads a binary MAVGCL model file. The file is memory mapped, only the time
+ * index and messages are decoded on read; columns are inflated when the store
+ * accesses them first.
+ */
+
+public class MGCReader implements AnalysisDataModelStore.ColumnLoader {
+
+	private MappedByteBuffer buffer;
+
+	private int rows;
+	private int block_rows;
+	private int blocks;
+
+	private long[] index_tms;
+	private long[] index_ofs;
+	private int[]  index_len;
+
+	private long msg_ofs;
+	private int  msg_len;
+
+	private Map<Integer,long[]> column_ofs = new HashMap<Integer,long[]>();
+	private Map<Integer,int[]>  column_len = new HashMap<Integer,int[]>();
+
+
+	public static boolean isBinary(File file) {
+		byte[] magic = new byte[4];
+		try (FileInputStream in = new FileInputStream(file)) {
+			if(in.read(magic) < 4)
+				return false;
+		} catch(IOException e) {
+			return false;
+		}
+		return ByteBuffer.wrap(magic).getInt() == MGCFormat.MAGIC;
+	}
+
+
+	public MGCReader(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("MGC file exceeds 2GB");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		ByteBuffer b = buffer.duplicate();
+		if(b.getInt() != MGCFormat.MAGIC)
+			throw new IOException("No MGC file: "+file.getName());
+		int version = b.getInt();
+		if(version != MGCFormat.VERSION)
+			throw new IOException("MGC version "+version+" not supported");
+
+		rows       = b.getInt();
+		block_rows = b.getInt();
+		blocks     = (rows + block_rows - 1) / block_rows;
+		int count  = b.getInt();
+		msg_ofs    = b.getLong();
+		msg_len    = b.getInt();
+
+		index_tms = new long[blocks];
+		index_ofs = new long[blocks];
+		index_len = new int[blocks];
+		for(int i=0;i<blocks;i++) {
+			index_tms[i] = b.getLong();
+			index_ofs[i] = b.getLong();
+			index_len[i] = b.getInt();
+		}
+
+		for(int c=0;c<count;c++) {
+			int hash = b.getInt();
+			int key_len = b.getShort() & 0xFFFF;
+			b.position(b.position() + key_len);
+			long[] ofs = new long[blocks];
+			int[]  len = new int[blocks];
+			for(int i=0;i<blocks;i++) {
+				ofs[i] = b.getLong();
+				len[i] = b.getInt();
+			}
+			column_ofs.put(hash, ofs);
+			column_len.put(hash, len);
+		}
+	}
+
+
+	public void read(AnalysisDataModelStore list) throws IOException {
+		long[] tms = new long[rows];
+		for(int i=0;i<blocks;i++)
+			MGCFormat.decodeTms(bytes(index_ofs[i], index_len[i]), index_tms[i], tms, i * block_rows, to(i));
+
+		int[] hashes = new int[column_ofs.size()]; int c = 0;
+		for(int hash : column_ofs.keySet())
+			hashes[c++] = hash;
+		list.attach(rows, tms, hashes, this);
+
+		List<MGCFormat.Entry> entries = new Gson().fromJson(
+				new String(bytes(msg_ofs, msg_len), StandardCharsets.UTF_8),
+				new TypeToken<List<MGCFormat.Entry>>() {}.getType());
+		if(entries!=null) {
+			for(MGCFormat.Entry e : entries) {
+				if(e.row < 0 || e.row >= rows)
+					continue;
+				list.setMessage(e.row, e.msg);
+				list.setStatus(e.row, e.status);
+			}
+		}
+
+		list.calculateVirtualKeyFigures(0, list.size());
+		System.out.println(rows+" entries read. Timespan is "+(rows > 0 ? tms[rows-1] / 1e6f : 0)+" sec");
+	}
+
+	@Override
+	public float[] loadChunk(int hash, int c) throws IOException {
+		long[] ofs = column_ofs.get(hash);
+		int[]  len = column_len.get(hash);
+		if(ofs==null)
+			return null;
+		int from = c * AnalysisDataModelStore.CHUNK_SIZE;
+		int to   = Math.min(rows, from + AnalysisDataModelStore.CHUNK_SIZE);
+		float[] chunk = new float[AnalysisDataModelStore.CHUNK_SIZE];
+		Arrays.fill(chunk, Float.NaN);
+		if(block_rows == AnalysisDataModelStore.CHUNK_SIZE) {
+			if(c < blocks)
+				MGCFormat.decodeFloats(bytes(ofs[c], len[c]), chunk, 0, to - from);
+			return chunk;
+		}
+		float[] block = new float[block_rows];
+		for(int i = from / block_rows; i < blocks && i * block_rows < to; i++) {
+			MGCFormat.decodeFloats(bytes(ofs[i], len[i]), block, 0, to(i) - i * block_rows);
+			int s = Math.max(from, i * block_rows), e = Math.min(to, to(i));
+			if(s < e)
+				System.arraycopy(block, s - i * block_rows, chunk, s - from, e - s);
+		}
+		return chunk;
+	}
+
+	private int to(int block) {
+		return Math.min(rows, (block + 1) * block_rows);
+	}
+
+	private byte[] bytes(long ofs, int len) {
+		byte[] data = new byte[len];
+		ByteBuffer b = buffer.duplicate();
+		b.position((int)ofs);
+		b.get(data);
+		return data;
+	}
+}
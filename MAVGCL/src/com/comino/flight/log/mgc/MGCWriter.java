@@ -0,0 +1,165 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.mgc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class MGCWriter {
+
+	private AnalysisDataModelStore list;
+
+	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+
+	public MGCWriter(AnalysisDataModelStore list) {
+		this.list = list;
+	}
+
+
+	public void write(File file) throws IOException {
+
+		AnalysisDataModelStore.Snapshot list = this.list.snapshot();
+		int rows   = list.size();
+		int blocks = MGCFormat.blocks(rows);
+
+		List<KeyFigureMetaData> kfs = new ArrayList<KeyFigureMetaData>();
+		int header = MGCFormat.HEADER_SIZE + blocks * MGCFormat.INDEX_SIZE;
+		for(KeyFigureMetaData kf : meta.getKeyFigureMap().values()) {
+			if(!list.hasData(kf))
+				continue;
+			kfs.add(kf);
+			header += 4 + 2 + kf.getKey().getBytes(StandardCharsets.UTF_8).length + blocks * MGCFormat.BLOCK_SIZE;
+		}
+
+		List<MGCFormat.Entry> entries = new ArrayList<MGCFormat.Entry>();
+		for(int i=0;i<rows;i++) {
+			if(list.getMessage(i)!=null || list.getStatus(i)!=null)
+				entries.add(new MGCFormat.Entry(i, list.getMessage(i), list.getStatus(i)));
+		}
+
+		// the target may be the mapped source of unloaded columns: write aside and replace it
+		File tmp = File.createTempFile(".mgc", ".tmp", file.getAbsoluteFile().getParentFile());
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer head = ByteBuffer.allocate(header);
+			head.position(MGCFormat.HEADER_SIZE);
+			channel.position(header);
+
+			long[] tms = new long[rows];
+			for(int i=0;i<rows;i++)
+				tms[i] = list.getTms(i);
+			for(int b=0;b<blocks;b++) {
+				int from = b * MGCFormat.BLOCK_ROWS, to = Math.min(rows, from + MGCFormat.BLOCK_ROWS);
+				head.putLong(tms[from]);
+				writeBlock(channel, head, MGCFormat.encodeTms(tms, from, to));
+			}
+
+			float[] empty = new float[MGCFormat.BLOCK_ROWS];
+			Arrays.fill(empty, Float.NaN);
+			for(int c=0;c<kfs.size();c++) {
+				byte[] key = kfs.get(c).getKey().getBytes(StandardCharsets.UTF_8);
+				head.putInt(kfs.get(c).hash);
+				head.putShort((short)key.length);
+				head.put(key);
+				for(int b=0;b<blocks;b++) {
+					int from = b * MGCFormat.BLOCK_ROWS, to = Math.min(rows, from + MGCFormat.BLOCK_ROWS);
+					float[] chunk = list.getChunk(kfs.get(c), b);
+					writeBlock(channel, head, MGCFormat.encodeFloats(chunk!=null ? chunk : empty, 0, to - from));
+				}
+			}
+
+			Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+			byte[] msg = gson.toJson(entries).getBytes(StandardCharsets.UTF_8);
+			long msg_ofs = channel.position();
+			channel.write(ByteBuffer.wrap(msg));
+
+			head.position(0);
+			head.putInt(MGCFormat.MAGIC);
+			head.putInt(MGCFormat.VERSION);
+			head.putInt(rows);
+			head.putInt(MGCFormat.BLOCK_ROWS);
+			head.putInt(kfs.size());
+			head.putLong(msg_ofs);
+			head.putInt(msg.length);
+			head.position(0);
+			channel.position(0);
+			while(head.hasRemaining())
+				channel.write(head);
+		} catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		replace(tmp, file);
+		System.out.println(rows+" entries with "+kfs.size()+" keyfigures written to "+file.getName());
+	}
+
+	private void replace(File tmp, File file) throws IOException {
+		try {
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	private void writeBlock(FileChannel channel, ByteBuffer head, byte[] data) throws IOException {
+		head.putLong(channel.position());
+		head.putInt(data.length);
+		ByteBuffer b = ByteBuffer.wrap(data);
+		while(b.hasRemaining())
+			channel.write(b);
+	}
+}
@@ -35,13 +35,13 @@ package com.comino.flight.log.px4log;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 
 import me.drton.jmavlib.log.BinaryLogReader;
 import me.drton.jmavlib.log.FormatErrorException;
@@ -49,17 +49,23 @@ import me.drton.jmavlib.log.FormatErrorException;
 public class PX4toModelConverter {
 
 	private BinaryLogReader reader;
-	private List<AnalysisDataModel> list;
+	private AnalysisDataModelStore list;
 
 	private long tms_start_us =0;
 	private long tms_total_us =0;
+	private long interval_us  =0;
 
 	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
 
 
-	public PX4toModelConverter(BinaryLogReader reader, List<AnalysisDataModel> list) {
+	public PX4toModelConverter(BinaryLogReader reader, AnalysisDataModelStore list) {
+		this(reader, list, AnalysisModelService.getInstance().getCollectorInterval_ms());
+	}
+
+	public PX4toModelConverter(BinaryLogReader reader, AnalysisDataModelStore list, int interval_ms) {
 		this.reader = reader;
 		this.list = list;
+		this.interval_us = interval_ms * 1000L;
 		reader.clearErrors();
 		System.out.println("Conversion of "+reader.getSizeMicroseconds()/1000+"ms");
 		tms_start_us = reader.getStartMicroseconds();
@@ -83,17 +89,18 @@ public class PX4toModelConverter {
 				if(tms_tmp > tms_slot && tms_tmp < tms_total_us) {
 					tms = tms_tmp;
 					model.tms = tms;
-					tms_slot += AnalysisModelService.getInstance().getCollectorInterval_ms()/1000;
+					tms_slot += interval_us;
 					model.setValues(KeyFigureMetaData.PX4_SOURCE,data, meta);
-					model.calculateVirtualKeyFigures(meta);
-					list.add(model.clone());
+					list.add(model);
 				}
 			}
+			list.calculateVirtualKeyFigures(0, list.size());
 			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
 
 		} catch(IOException e) {
 			if(errorFlag)
 				System.out.println("WARNING: Some of the key-figures were not available in the PX4Log");
+			list.calculateVirtualKeyFigures(0, list.size());
 			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
 
 		}
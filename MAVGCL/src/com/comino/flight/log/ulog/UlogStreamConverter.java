@@ -0,0 +1,182 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.log.ulog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.jmavlib.extensions.UlogMAVLinkParser;
+import com.comino.msp.model.segment.LogMessage;
+
+import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.ulog.MessageData;
+import me.drton.jmavlib.log.ulog.MessageLog;
+
+/*
+ * Converts a ULog byte stream while it is still being written (e.g. downloaded), rows
+ * are appended to the list as soon as the bytes arrive. Same sampling as UlogtoModelConverter:
+ * a row for the first update within each collector interval.
+ */
+public class UlogStreamConverter {
+
+	private static final int HEADER_SIZE = 16;
+
+	private final UlogMAVLinkParser parser = new UlogMAVLinkParser();
+	private final ByteBuffer read = ByteBuffer.allocate(8192);
+
+	private final AnalysisDataModelStore list;
+	private final long interval_us;
+	private final KeyFigureMetaData[] kfs;
+	private final String[] fields;
+	private final Map<String, Object> values;
+	private final List<MessageLog> messages = new ArrayList<MessageLog>();
+	private final AnalysisDataModel model = new AnalysisDataModel();
+
+	private long    position   = 0;
+	private boolean header     = false;
+	private long    start      = -1;
+	private long    slot       = -1;
+	private int     calculated = 0;
+
+
+	public UlogStreamConverter(AnalysisDataModelStore list, int interval_ms) {
+		this.list = list;
+		this.interval_us = interval_ms * 1000L;
+		this.values = parser.getDataBuffer();
+		this.parser.reset();
+
+		kfs = AnalysisDataModelMetaData.getInstance().getKeyFiguresWithSource(KeyFigureMetaData.ULG_SOURCE);
+		fields = new String[kfs.length];
+		for(int i=0;i<kfs.length;i++)
+			fields[i] = kfs[i].sources.get(KeyFigureMetaData.ULG_SOURCE).field;
+	}
+
+	/*
+	 * Converts the stream from the current position up to 'end', which must not
+	 * contain gaps. Returns the number of rows added.
+	 */
+	public int convert(FileChannel channel, long end) throws IOException, FormatErrorException {
+		int rows = list.size();
+		while(position < end) {
+			read.clear();
+			read.limit((int)Math.min(read.capacity(), end - position));
+			if(channel.read(read, position) <= 0)
+				break;
+			read.flip();
+			while(read.hasRemaining()) {
+				int added = parser.addToBuffer(read);
+				position += added;
+				if(!header) {
+					if(parser.getBufferedBytes() < HEADER_SIZE)
+						continue;
+					if(!parser.checkHeader())
+						throw new FormatErrorException("Not a ULog file");
+					header = true;
+				}
+				int buffered = parser.getBufferedBytes();
+				parser.parseStream(msg -> apply(msg));
+				// buffer full without a complete message: it can never be parsed
+				if(added == 0 && parser.getBufferedBytes() >= buffered)
+					throw new FormatErrorException(position, "Message exceeds stream buffer");
+			}
+		}
+		list.calculateVirtualKeyFigures(calculated, list.size());
+		calculated = list.size();
+		setMessages(false);
+		return list.size() - rows;
+	}
+
+	/*
+	 * Adds the remaining log messages at the end of the stream
+	 */
+	public void finish() {
+		setMessages(true);
+		System.out.println(list.size()+" entries converted while streaming. Timespan is "+
+				(list.size() > 0 ? list.getTms(list.size()-1)/1e6f : 0)+" sec");
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	private void apply(Object msg) {
+		if(msg instanceof MessageData) {
+			if(start < 0)
+				start = ((MessageData)msg).timestamp;
+			long tms = ((MessageData)msg).timestamp - start;
+			if(tms >= 0 && tms / interval_us > slot) {
+				slot = tms / interval_us;
+				model.tms = tms;
+				setValues();
+				list.add(model);
+			}
+		} else if(msg instanceof MessageLog)
+			messages.add((MessageLog)msg);
+	}
+
+	private void setValues() {
+		for(int i=0;i<kfs.length;i++) {
+			Object v = values.get(fields[i]);
+			try {
+				model.setValue(kfs[i], kfs[i].getValueFromULog(v instanceof Number ? ((Number)v).doubleValue() : Double.NaN));
+			} catch(Exception e) {
+				model.setValue(kfs[i], Float.NaN);
+			}
+		}
+	}
+
+	/* messages are set as soon as their row exists */
+	private void setMessages(boolean all) {
+		Iterator<MessageLog> i = messages.iterator();
+		while(i.hasNext()) {
+			MessageLog s = i.next();
+			int row = (int)((s.timestamp - start)/interval_us);
+			if(row >= list.size() && !all)
+				continue;
+			if(row > 0 && row < list.size())
+				list.setMessage(row, new LogMessage(s.message,s.logLevel & 0x00FF - 56));
+			i.remove();
+		}
+	}
+}
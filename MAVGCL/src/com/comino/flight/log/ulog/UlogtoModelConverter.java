@@ -33,15 +33,20 @@
 
 package com.comino.flight.log.ulog;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.msp.model.segment.LogMessage;
 
 import me.drton.jmavlib.log.FormatErrorException;
@@ -49,61 +54,180 @@ import me.drton.jmavlib.log.ulog.ULogReader;
 
 public class UlogtoModelConverter {
 
+	private static final int MIN_CHUNK_SIZE = 20000;
+
 	private ULogReader reader;
-	private List<AnalysisDataModel> list;
+	private AnalysisDataModelStore list;
+	private long interval_us;
 
 	private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
 
 
-	public UlogtoModelConverter(ULogReader reader, List<AnalysisDataModel> list) {
+	public UlogtoModelConverter(ULogReader reader, AnalysisDataModelStore list) {
+		this(reader, list, AnalysisModelService.getInstance().getCollectorInterval_ms());
+	}
+
+	public UlogtoModelConverter(ULogReader reader, AnalysisDataModelStore list, int interval_ms) {
 		this.reader = reader;
 		this.list = list;
+		this.interval_us = interval_ms * 1000L;
 	}
 
 
+	/*
+	 * Splits the data messages into chunks which are converted in parallel, each
+	 * by its own reader. Chunks are stitched in order, rows before the first update
+	 * of a keyfigure within a chunk are continued with the last value of the
+	 * previous one. NaN values logged by the vehicle are kept.
+	 */
 	public void doConversion() throws FormatErrorException {
 
-		long tms_slot = 0; long tms = 0; boolean errorFlag = false;
-
-		Map<String,Object> data = new HashMap<String,Object>();
+		int count = reader.getSeekCount();
+		int parallelism = ForkJoinPool.commonPool().getParallelism();
+		int chunks = parallelism > 1 ? Math.max(1, Math.min(count / MIN_CHUNK_SIZE, parallelism * 4)) : 1;
 
 		list.clear();
 
-		try {
-
-			while(tms < reader.getSizeMicroseconds()) {
-				tms = reader.readUpdate(data)-reader.getStartMicroseconds();
-
-				if(tms > tms_slot) {
-					AnalysisDataModel model = new AnalysisDataModel();
-					model.tms = tms;
-					tms_slot += AnalysisModelService.getInstance().getCollectorInterval_ms()/1000;
-					model.setValues(KeyFigureMetaData.ULG_SOURCE, data, meta);
-					model.calculateVirtualKeyFigures(meta);
-					list.add(model);
-				}
+		KeyFigureMetaData[] kfs = meta.getKeyFiguresWithSource(KeyFigureMetaData.ULG_SOURCE);
+		int[] ids = new int[kfs.length];
+		List<String> fields = new ArrayList<String>();
+		for(int i=0;i<kfs.length;i++) {
+			fields.add(kfs[i].sources.get(KeyFigureMetaData.ULG_SOURCE).field);
+			ids[i] = reader.getFieldId(fields.get(i));
+		}
+		reader.setRequiredFields(fields);
+
+		List<ForkJoinTask<Chunk>> tasks = new ArrayList<ForkJoinTask<Chunk>>();
+		long tms_max = -1;
+		int from = 0;
+		for(int c=0;c<chunks;c++) {
+			int to = (int)((long)count * (c+1) / chunks);
+			final int   first = from;
+			final long  end   = to < count ? reader.getSeekPosition(to) : Long.MAX_VALUE;
+			final long  slot  = tms_max < 0 ? -1 : (tms_max - reader.getStartMicroseconds()) / interval_us;
+			tasks.add(ForkJoinPool.commonPool().submit(() -> convertChunk(first, end, slot, interval_us, kfs, ids)));
+			for(int i=from;i<to;i++) {
+				if(reader.isSeekSelected(i))
+					tms_max = Math.max(tms_max, reader.getSeekTimestamp(i));
 			}
+			from = to;
+		}
 
-			reader.loggedMessages.forEach(s -> {
-				LogMessage msg = new LogMessage(s.message,s.logLevel & 0x00FF - 56);
-				int i = (int)((s.timestamp - reader.getStartMicroseconds())/50000);
-				if(i > 0) {
-					AnalysisDataModel model = list.get(i);
-					model.msg = msg;
+		try {
+			float[] last = new float[meta.getSlotCount()];
+			Arrays.fill(last, Float.NaN);
+			for(ForkJoinTask<Chunk> task : tasks) {
+				Chunk chunk = task.get();
+				for(int i=0;i<chunk.models.size();i++) {
+					AnalysisDataModel model = chunk.models.get(i);
+					for(int k=0;k<kfs.length;k++) {
+						if(i < chunk.first[k])
+							model.setValue(kfs[k], last[kfs[k].slot]);
+					}
+					if(i < chunk.models.size()-1)
+						list.add(model);
 				}
-			});
-
+				AnalysisDataModel end = chunk.models.get(chunk.models.size()-1);
+				for(KeyFigureMetaData kf : kfs)
+					last[kf.slot] = end.getValue(kf);
+			}
+		} catch(InterruptedException e) {
+			return;
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof FormatErrorException)
+				throw (FormatErrorException)e.getCause();
+			System.err.println(this.getClass().getSimpleName()+": "+e.getCause().getMessage());
+		}
 
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+		reader.loggedMessages.forEach(s -> {
+			LogMessage msg = new LogMessage(s.message,s.logLevel & 0x00FF - 56);
+			int i = (int)((s.timestamp - reader.getStartMicroseconds())/interval_us);
+			if(i > 0 && i < list.size())
+				list.setMessage(i, msg);
+		});
 
-		} catch(IOException e) {
-			if(errorFlag)
-				System.out.println("WARNING: Some of the key-figures were not available in the PX4Log");
-			System.out.println(list.size()+" entries read. Timespan is "+tms_slot/1e6f+" sec");
+		list.calculateVirtualKeyFigures(0, list.size());
+		System.out.println(list.size()+" entries read in "+chunks+" chunks. Timespan is "+
+		                  (list.size() > 0 ? list.getTms(list.size()-1)/1e6f : 0)+" sec");
+	}
 
+	/*
+	 * Converts the data messages from seek index 'first' up to file position 'end'.
+	 * A row is added for the first update within each collector interval, 'slot'
+	 * is the last interval before the chunk. The last entry holds the values at
+	 * the end of the chunk and is not a row.
+	 */
+	private Chunk convertChunk(int first, long end, long slot, long interval_us,
+			KeyFigureMetaData[] kfs, int[] ids) throws IOException, FormatErrorException {
+
+		Chunk result = new Chunk(kfs.length);
+		AnalysisDataModel model = new AnalysisDataModel();
+		int unseen = 0;
+		for(int id : ids)
+			if(id >= 0) unseen++;
+
+		ULogReader chunk = reader.duplicate();
+		double[] values = chunk.getValues();
+		try {
+			chunk.seekIndex(first);
+			long tms_read;
+			while((tms_read = chunk.readUpdate(end)) >= 0) {
+				if(unseen > 0)
+					unseen -= markUpdated(chunk, result, ids);
+				long tms = tms_read - reader.getStartMicroseconds();
+				if(tms >= 0 && tms / interval_us > slot) {
+					slot = tms / interval_us;
+					model.tms = tms;
+					setValues(model, values, kfs, ids);
+					result.models.add(model.clone());
+				}
+			}
+		} catch(EOFException e) {
+			// end of log
+		} finally {
+			chunk.close();
 		}
+		setValues(model, values, kfs, ids);
+		result.models.add(model);
+		return result;
 	}
 
+	/*
+	 * Sets the first row of keyfigures updated by the last message for the first time,
+	 * returns the number of these keyfigures.
+	 */
+	private int markUpdated(ULogReader chunk, Chunk result, int[] ids) {
+		int count = 0;
+		for(int k=0;k<ids.length;k++) {
+			if(result.first[k] == Integer.MAX_VALUE && ids[k] >= 0 && chunk.isUpdated(ids[k])) {
+				result.first[k] = result.models.size();
+				count++;
+			}
+		}
+		return count;
+	}
 
+	private void setValues(AnalysisDataModel model, double[] values, KeyFigureMetaData[] kfs, int[] ids) {
+		for(int i=0;i<kfs.length;i++) {
+			try {
+				model.setValue(kfs[i], kfs[i].getValueFromULog(ids[i] < 0 ? Double.NaN : values[ids[i]]));
+			} catch(Exception e) {
+				model.setValue(kfs[i], Float.NaN);
+			}
+		}
+	}
 
+	/*
+	 * Rows of a chunk and for each keyfigure the first row containing an update
+	 * read within the chunk, MAX_VALUE if it was not updated.
+	 */
+	private static class Chunk {
+		final List<AnalysisDataModel> models = new ArrayList<AnalysisDataModel>();
+		final int[] first;
+
+		Chunk(int count) {
+			first = new int[count];
+			Arrays.fill(first, Integer.MAX_VALUE);
+		}
+	}
 }
@@ -31,15 +31,18 @@
  *
  ****************************************************************************/
 
+
 package com.comino.flight.model;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
 import com.comino.msp.model.DataModel;
 import com.comino.msp.model.segment.LogMessage;
 import com.comino.msp.model.segment.Status;
+import com.google.gson.annotations.JsonAdapter;
 
+@JsonAdapter(AnalysisDataModelAdapterFactory.class)
 public class AnalysisDataModel {
 
 	public long       tms  = 0;
@@ -48,19 +51,19 @@ public class AnalysisDataModel {
 
 	public float    dt_sec = 0;
 
-	private Map<Integer,Float> data = null;
+	private float[] data = null;
 
 	public AnalysisDataModel() {
-		this.data = new HashMap<Integer,Float>();
+		this.data = new float[AnalysisDataModelMetaData.getInstance().getSlotCount()];
+		Arrays.fill(data, Float.NaN);
 	}
 
-	private AnalysisDataModel(Map<Integer,Float> d) {
-		this.data = new HashMap<Integer,Float>();
-		this.data.putAll(d);
+	protected AnalysisDataModel(float[] d) {
+		this.data = d;
 	}
 
 	public  AnalysisDataModel clone() {
-		AnalysisDataModel d = new AnalysisDataModel(data);
+		AnalysisDataModel d = new AnalysisDataModel(data.clone());
 
 		d.tms = tms;
 		if(msg!=null)
@@ -71,7 +74,7 @@ public class AnalysisDataModel {
 	}
 
 	public void clear()  {
-		data.clear();
+		Arrays.fill(data, Float.NaN);
 		tms = 0;
 		msg = null;
 		status = null;
@@ -79,59 +82,70 @@ public class AnalysisDataModel {
 
 
 	public float getValue(String kf) {
-		int hash = kf.toLowerCase().hashCode();
-		if(data.containsKey(hash))
-			return data.get(hash);
-		else
+		KeyFigureMetaData m = AnalysisDataModelMetaData.getInstance().getMetaData(kf);
+		if(m==null)
 			return 0;
+		float v = getValue(m);
+		return Float.isNaN(v) ? 0 : v;
 	}
 
 	public float getValue(KeyFigureMetaData m) {
-		if(data.containsKey(m.hash))
-			return data.get(m.hash);
-		else
+		int slot = AnalysisDataModelMetaData.getInstance().getSlot(m);
+		if(slot < 0 || slot >= data.length)
 			return Float.NaN;
+		return data[slot];
 	}
 
 	public void setValue(String kf,float value) {
-		data.put(kf.toLowerCase().hashCode(), value);
+		KeyFigureMetaData m = AnalysisDataModelMetaData.getInstance().getMetaData(kf);
+		if(m!=null)
+			setValue(m, value);
+	}
+
+	public void setValue(KeyFigureMetaData m,float value) {
+		int slot = AnalysisDataModelMetaData.getInstance().getSlot(m);
+		if(slot < 0)
+			return;
+		if(slot >= data.length) {
+			int length = data.length;
+			data = Arrays.copyOf(data, AnalysisDataModelMetaData.getInstance().getSlotCount());
+			Arrays.fill(data, length, data.length, Float.NaN);
+		}
+		data[slot] = value;
 	}
 
 	@SuppressWarnings("unchecked")
 	public  void setValues(int type, Object source, AnalysisDataModelMetaData md ) {
-		md.getKeyFigureMap().forEach((i,e) -> {
-			Float val = null;
+		KeyFigureMetaData[] kfs = type == KeyFigureMetaData.MAV_SOURCE
+				? md.getKeyFiguresForMessage(source.getClass())
+				: md.getKeyFiguresWithSource(type);
+
+		for(KeyFigureMetaData e : kfs) {
 			try {
-				if(!e.isVirtual) {
-
-					if( type == KeyFigureMetaData.MSP_SOURCE && e.hasSource(KeyFigureMetaData.MSP_SOURCE))
-						val = e.getValueFromMSPModel((DataModel)source);
-					if( type == KeyFigureMetaData.PX4_SOURCE && e.hasSource(KeyFigureMetaData.PX4_SOURCE))
-						val = e.getValueFromPX4Model((Map<String,Object>)source);
-					if( type == KeyFigureMetaData.ULG_SOURCE && e.hasSource(KeyFigureMetaData.ULG_SOURCE))
-						val = e.getValueFromULogModel((Map<String,Object>)source);
-					if( type == KeyFigureMetaData.MAV_SOURCE && e.hasSource(KeyFigureMetaData.MAV_SOURCE))
-						val = e.getValueFromMAVLinkMessage(source);
-
-					if(val!=null)
-						data.put(e.hash,val);
+				switch(type) {
+				case KeyFigureMetaData.MSP_SOURCE:
+					setValue(e,e.getValueFromMSPModel((DataModel)source)); break;
+				case KeyFigureMetaData.PX4_SOURCE:
+					setValue(e,e.getValueFromPX4Model((Map<String,Object>)source)); break;
+				case KeyFigureMetaData.ULG_SOURCE:
+					setValue(e,e.getValueFromULogModel((Map<String,Object>)source)); break;
+				case KeyFigureMetaData.MAV_SOURCE:
+					setValue(e,e.getValueFromMAVLinkMessage(source)); break;
 				}
-			} catch (Exception e1) {
-				data.put(e.hash, Float.NaN);
+			} catch (Throwable e1) {
+				setValue(e, Float.NaN);
 			}
-		});
+		}
 	}
 
 	public void calculateVirtualKeyFigures(AnalysisDataModelMetaData md) {
-		md.getVirtualKeyFigureMap().forEach((i,e) -> {
+		for(KeyFigureMetaData e : md.getVirtualKeyFigures()) {
 			try {
-				if(e.isVirtual) {
-					data.put(e.hash,e.calculateVirtualValue(this));
-				}
+				setValue(e,e.calculateVirtualValue(this));
 			} catch (Exception e1) {
-				data.put(e.hash, Float.NaN);
+				setValue(e, Float.NaN);
 			}
-		});
+		}
 	}
 
 }
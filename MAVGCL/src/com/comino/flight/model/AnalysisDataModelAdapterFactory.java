@@ -0,0 +1,149 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model;
+
+import java.io.IOException;
+
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/*
+ * Keeps the JSON layout of .mgc files, where keyfigure values are stored as a map
+ * keyed by the keyfigure hash, independent of the slot layout in memory.
+ */
+
+public class AnalysisDataModelAdapterFactory implements TypeAdapterFactory {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		if(!AnalysisDataModel.class.isAssignableFrom(type.getRawType()))
+			return null;
+		return (TypeAdapter<T>) new Adapter(gson.getAdapter(LogMessage.class), gson.getAdapter(Status.class));
+	}
+
+	private static class Adapter extends TypeAdapter<AnalysisDataModel> {
+
+		private AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
+
+		private TypeAdapter<LogMessage> msgAdapter;
+		private TypeAdapter<Status>     statusAdapter;
+
+		public Adapter(TypeAdapter<LogMessage> msgAdapter, TypeAdapter<Status> statusAdapter) {
+			this.msgAdapter    = msgAdapter;
+			this.statusAdapter = statusAdapter;
+		}
+
+		@Override
+		public void write(JsonWriter out, AnalysisDataModel m) throws IOException {
+			if(m==null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("tms").value(m.tms);
+			if(m.msg!=null) {
+				out.name("msg");
+				msgAdapter.write(out, m.msg);
+			}
+			if(m.status!=null) {
+				out.name("status");
+				statusAdapter.write(out, m.status);
+			}
+			out.name("dt_sec").value(Float.valueOf(m.dt_sec));
+			out.name("data").beginObject();
+			for(KeyFigureMetaData kf : meta.getKeyFigures()) {
+				float v = m.getValue(kf);
+				if(!Float.isNaN(v))
+					out.name(String.valueOf(kf.hash)).value(Float.valueOf(v));
+			}
+			out.endObject();
+			out.endObject();
+		}
+
+		@Override
+		public AnalysisDataModel read(JsonReader in) throws IOException {
+			if(in.peek()==JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			AnalysisDataModel m = new AnalysisDataModel();
+			in.beginObject();
+			while(in.hasNext()) {
+				String name = in.nextName();
+				if(in.peek()==JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch(name) {
+				case "tms":
+					m.tms = in.nextLong();
+					break;
+				case "dt_sec":
+					m.dt_sec = (float)in.nextDouble();
+					break;
+				case "msg":
+					m.msg = msgAdapter.read(in);
+					break;
+				case "status":
+					m.status = statusAdapter.read(in);
+					break;
+				case "data":
+					in.beginObject();
+					while(in.hasNext()) {
+						KeyFigureMetaData kf = meta.getKeyFigureMap().get(Integer.parseInt(in.nextName()));
+						if(kf!=null)
+							m.setValue(kf, (float)in.nextDouble());
+						else
+							in.skipValue();
+					}
+					in.endObject();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return m;
+		}
+	}
+}
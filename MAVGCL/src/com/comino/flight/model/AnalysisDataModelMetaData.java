@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -50,6 +51,9 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.comino.flight.model.converter.SourceConverter;
+import com.comino.flight.model.converter.VirtualConverter;
+
 public class AnalysisDataModelMetaData extends Observable {
 
 	private static AnalysisDataModelMetaData instance = null;
@@ -58,6 +62,11 @@ public class AnalysisDataModelMetaData extends Observable {
 	private Map<Integer,KeyFigureMetaData>        virt   = null;
 	private Map<String,List<KeyFigureMetaData>> groups   = null;
 	private List<KeyFigureMetaData>     sortedMetaList   = null;
+	private Map<String,KeyFigureMetaData>         keys   = null;
+	private int[]                                hashes  = new int[0];
+	private KeyFigureMetaData[][]              bySource  = null;
+	private KeyFigureMetaData[]                 virtuals  = new KeyFigureMetaData[0];
+	private Map<Class<?>,KeyFigureMetaData[]>  byMessage = null;
 
 	private int count = 0;
 	private String version = "0.0";
@@ -73,6 +82,8 @@ public class AnalysisDataModelMetaData extends Observable {
 		this.meta    = new HashMap<Integer,KeyFigureMetaData>();
 		this.virt    = new HashMap<Integer,KeyFigureMetaData>();
 		this.groups  = new HashMap<String,List<KeyFigureMetaData>>();
+		this.keys    = new ConcurrentHashMap<String,KeyFigureMetaData>();
+		this.byMessage = new ConcurrentHashMap<Class<?>,KeyFigureMetaData[]>();
 
 		loadModelMetaData(null);
 	}
@@ -80,7 +91,7 @@ public class AnalysisDataModelMetaData extends Observable {
 	public void loadModelMetaData(InputStream stream) {
 
 			InputStream is = stream;
-			meta.clear(); groups.clear(); virt.clear();
+			meta.clear(); groups.clear(); virt.clear(); keys.clear(); byMessage.clear();
 
 			if(is!=null) {
 				buildDocument(is);
@@ -89,6 +100,7 @@ public class AnalysisDataModelMetaData extends Observable {
 				buildDocument(is);
 			}
 			sortedMetaList = buildSortedList();
+			buildIndex();
 			setChanged(); notifyObservers(null);
 
 	}
@@ -124,13 +136,71 @@ public class AnalysisDataModelMetaData extends Observable {
 
 
 	public void add(KeyFigureMetaData m) {
+		m.slot = count++;
 		this.meta.put(m.hash, m);
+		buildIndex();
+	}
+
+	public int getSlotCount() {
+		return count;
+	}
+
+	/*
+	 * Returns the slot of a keyfigure in the current model definition. Falls back
+	 * to a lookup by hash for instances of a previously loaded definition.
+	 */
+	public int getSlot(KeyFigureMetaData kf) {
+		int[] h = hashes; int s = kf.slot;
+		if(s >= 0 && s < h.length && h[s] == kf.hash)
+			return s;
+		if(kf.hash==0)
+			return -1;
+		KeyFigureMetaData m = meta.get(kf.hash);
+		return m != null ? m.slot : -1;
+	}
+
+	/*
+	 * Returns all non-virtual keyfigures that provide a source of the given type.
+	 */
+	public KeyFigureMetaData[] getKeyFiguresWithSource(int type) {
+		return bySource[type];
+	}
+
+	/*
+	 * Returns the virtual keyfigures in the order they are calculated.
+	 */
+	public KeyFigureMetaData[] getVirtualKeyFigures() {
+		return virtuals;
+	}
+
+	/*
+	 * Returns the keyfigures, that are fed by the given MAVLink message class. The
+	 * assignment is determined once per message class.
+	 */
+	public KeyFigureMetaData[] getKeyFiguresForMessage(Class<?> message) {
+		KeyFigureMetaData[] list = byMessage.get(message);
+		if(list==null) {
+			List<KeyFigureMetaData> l = new ArrayList<KeyFigureMetaData>();
+			for(KeyFigureMetaData kf : bySource[KeyFigureMetaData.MAV_SOURCE]) {
+				if(message.getSimpleName().equals(kf.sources.get(KeyFigureMetaData.MAV_SOURCE).class_n))
+					l.add(kf);
+			}
+			list = l.toArray(new KeyFigureMetaData[l.size()]);
+			byMessage.put(message, list);
+		}
+		return list;
 	}
 
 	public KeyFigureMetaData getMetaData(String kf) {
-		if(kf!=null)
-			return meta.get(kf.toLowerCase().hashCode());
-		return null;
+		if(kf==null)
+			return null;
+		KeyFigureMetaData m = keys.get(kf);
+		if(m==null) {
+			m = meta.get(kf.toLowerCase().hashCode());
+			if(m!=null)
+				keys.put(kf, m);
+		}
+		return m;
 	}
 
 	public List<KeyFigureMetaData> getKeyFigures() {
@@ -180,6 +250,68 @@ public class AnalysisDataModelMetaData extends Observable {
 		}).start();
 	}
 
+	private void buildIndex() {
+		int[] h = new int[count];
+		meta.forEach((i,p) -> {
+			if(p.slot >= 0 && p.slot < h.length)
+				h[p.slot] = p.hash;
+		});
+		hashes = h;
+
+		KeyFigureMetaData[][] s = new KeyFigureMetaData[KeyFigureMetaData.VIR_SOURCE+1][];
+		for(int type=0;type<s.length;type++) {
+			List<KeyFigureMetaData> l = new ArrayList<KeyFigureMetaData>();
+			for(KeyFigureMetaData kf : meta.values()) {
+				if(!kf.isVirtual && kf.hasSource(type))
+					l.add(kf);
+			}
+			s[type] = l.toArray(new KeyFigureMetaData[l.size()]);
+		}
+		bySource = s;
+		byMessage.clear();
+
+		virtuals = buildVirtualOrder();
+	}
+
+	/*
+	 * Binds the expressions of virtual keyfigures and orders them, so that virtual
+	 * keyfigures are calculated after the virtual keyfigures they depend on.
+	 */
+	private KeyFigureMetaData[] buildVirtualOrder() {
+		List<KeyFigureMetaData> order = new ArrayList<KeyFigureMetaData>();
+		Map<KeyFigureMetaData,Boolean> visited = new HashMap<KeyFigureMetaData,Boolean>();
+
+		virt.forEach((i,kf) -> {
+			SourceConverter conv = kf.sources.get(KeyFigureMetaData.VIR_SOURCE).converter;
+			if(conv instanceof VirtualConverter)
+				((VirtualConverter)conv).bind(this);
+		});
+
+		virt.forEach((i,kf) -> {
+			addVirtual(kf, order, visited);
+		});
+		return order.toArray(new KeyFigureMetaData[order.size()]);
+	}
+
+	private void addVirtual(KeyFigureMetaData kf, List<KeyFigureMetaData> order, Map<KeyFigureMetaData,Boolean> visited) {
+		Boolean done = visited.get(kf);
+		if(done!=null) {
+			if(!done)
+				System.err.println("Virtual keyfigure "+kf.getKey()+" has a circular dependency");
+			return;
+		}
+		visited.put(kf, false);
+		SourceConverter conv = kf.sources.get(KeyFigureMetaData.VIR_SOURCE).converter;
+		if(conv instanceof VirtualConverter) {
+			for(KeyFigureMetaData dep : ((VirtualConverter)conv).getVariables()) {
+				if(dep.isVirtual)
+					addVirtual(dep, order, visited);
+			}
+		}
+		visited.put(kf, true);
+		order.add(kf);
+	}
+
 	private List<KeyFigureMetaData> buildSortedList() {
 
 		List<KeyFigureMetaData> list = new ArrayList<KeyFigureMetaData>();
@@ -193,6 +325,12 @@ public class AnalysisDataModelMetaData extends Observable {
 	private void buildKeyFigureList(NodeList keyfigures) {
 		for (count = 0; count < keyfigures.getLength(); count++) {
 			KeyFigureMetaData keyfigure = buildKeyFigure(keyfigures.item(count));
+			keyfigure.slot = count;
+			KeyFigureMetaData existing = meta.get(keyfigure.hash);
+			if(existing!=null && !existing.getKey().equalsIgnoreCase(keyfigure.getKey())) {
+				System.err.println("Keyfigure "+keyfigure.getKey()+" ignored: Hash collides with "+existing.getKey());
+				continue;
+			}
 			meta.put(keyfigure.hash,keyfigure);
 			if(keyfigure.isVirtual)
 				virt.put(keyfigure.hash,keyfigure);
@@ -207,6 +345,9 @@ public class AnalysisDataModelMetaData extends Observable {
 				kf_node.getAttributes().getNamedItem("uom" ).getTextContent(),
 				kf_node.getAttributes().getNamedItem("mask").getTextContent());
 
+		Node sampling = kf_node.getAttributes().getNamedItem("sampling");
+		keyfigure.interpolate = sampling != null && sampling.getTextContent().equalsIgnoreCase("linear");
+
 		for(int i=0;i<kf_node.getChildNodes().getLength();i++) {
 			Node node = kf_node.getChildNodes().item(i);
 			if(node.getNodeName().equals("MSPSource")) {
@@ -33,6 +33,9 @@
 
 package com.comino.flight.model;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
@@ -54,10 +57,12 @@ public class KeyFigureMetaData {
 	public String uom;
 	public String mask;
 	public int    hash;
+	public transient int slot = -1;
 	public float  min=0;
 	public float  max=0;
 
 	public boolean isVirtual = false;
+	public boolean interpolate = false;
 
 	private String key;
 
@@ -104,83 +109,75 @@ public class KeyFigureMetaData {
 			}
 		} else
 			sources.put(type, new DataSource(class_n,field,null));
+
+		if(type==MSP_SOURCE && sources.containsKey(MSP_SOURCE))
+			sources.get(MSP_SOURCE).resolve(DataModel.class);
+	}
+
+	public String getKey() {
+		return key;
 	}
 
 	public boolean hasSource(int type) {
 		return sources.containsKey(type);
 	}
 
-	public Float getValueFromMSPModel(DataModel m) throws Exception {
-		float value = Float.NaN;
+	public float getValueFromMSPModel(DataModel m) throws Throwable {
 		DataSource source = sources.get(MSP_SOURCE);
-		Field mclass_field = m.getClass().getField(source.class_n);
-		Object mclass = mclass_field.get(m);
-		Field mfield_field = mclass.getClass().getField(source.field);
-		value = new Double(mfield_field.getDouble(mclass)).floatValue();
+		float value = (float)source.getDouble(m);
 		if(source.converter != null)
 			return source.converter.convert(value);
 		return value;
 	}
 
 
-	public Float getValueFromPX4Model(Map<String,Object> data) {
-		float value = Float.NaN;;
-		DataSource source = sources.get(PX4_SOURCE);
-		Object o = data.get(source.field);
-		if(o instanceof Integer)
-			value = (float)(Integer)o;
-		else if(o instanceof Double)
-			value = ((Double)o).floatValue();
-		else
-			value = (float)(Float)o;
+	public float getValueFromPX4Model(Map<String,Object> data) {
+		return getValueFromMap(sources.get(PX4_SOURCE), data);
+	}
 
-		if(source.converter != null)
-			return source.converter.convert(value);
-		return value;
+	public float getValueFromULogModel(Map<String,Object> data) {
+		return getValueFromMap(sources.get(ULG_SOURCE), data);
 	}
 
-	public Float getValueFromULogModel(Map<String,Object> data) {
-		float value = Float.NaN;;
+	public float getValueFromULog(double value) {
 		DataSource source = sources.get(ULG_SOURCE);
-		Object o = data.get(source.field);
-		if(o instanceof Integer)
-			value = (float)(Integer)o;
-		else if(o instanceof Double)
-			value = ((Double)o).floatValue();
-		else
-			value = (float)(Float)o;
-
 		if(source.converter != null)
-			return source.converter.convert(value);
-		return value;
+			return source.converter.convert((float)value);
+		return (float)value;
 	}
 
-	public Float getValueFromMAVLinkMessage(Object mavlink_message) throws Exception {
-		float value = Float.NaN;;
+	public float getValueFromMAVLinkMessage(Object mavlink_message) throws Throwable {
 		DataSource source = sources.get(MAV_SOURCE);
-		if(mavlink_message.getClass().getSimpleName().equals(source.class_n)) {
-		    Field mfield_field = mavlink_message.getClass().getField(source.field);
-		    value = new Double(mfield_field.getDouble(mavlink_message)).floatValue();
-			if(source.converter != null)
-				return source.converter.convert(value);
-			return value;
-		}
-		return null;
+		float value = (float)source.getDouble(mavlink_message);
+		if(source.converter != null)
+			return source.converter.convert(value);
+		return value;
 	}
 
-	public Float calculateVirtualValue(AnalysisDataModel data) {
+	public float calculateVirtualValue(AnalysisDataModel data) {
 		DataSource source = sources.get(VIR_SOURCE);
 		if(source.converter != null)
 			return source.converter.convert(data);
 		return 0f;
 	}
 
+	private float getValueFromMap(DataSource source, Map<String,Object> data) {
+		float value = Float.NaN;
+		Object o = data.get(source.field);
+		if(o instanceof Number)
+			value = ((Number)o).floatValue();
+
+		if(source.converter != null)
+			return source.converter.convert(value);
+		return value;
+	}
+
 	public String toString() {
 		return desc1;
 	}
 
 	public String toStringAll() {
-		return desc1+": "+key+"("+hash+")";
+		return desc1+": "+key+"("+hash+"/"+slot+")";
 	}
 
 	public class DataSource {
@@ -195,6 +192,39 @@ public class KeyFigureMetaData {
 		public String field;
 		public SourceConverter converter;
 
+		private transient MethodHandle accessor = null;
+
+		/*
+		 * Reads the source field as double through an accessor, which is resolved
+		 * once for the class of the first object passed.
+		 */
+		public void resolve(Class<?> clazz) {
+			accessor = buildAccessor(clazz);
+		}
+
+		public double getDouble(Object o) throws Throwable {
+			if(accessor==null)
+				accessor = buildAccessor(o.getClass());
+			return (double)accessor.invokeExact(o);
+		}
+
+		private MethodHandle buildAccessor(Class<?> clazz) {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			try {
+				MethodHandle getter;
+				if(clazz == DataModel.class || DataModel.class.isAssignableFrom(clazz)) {
+					Field segment = clazz.getField(class_n);
+					getter = MethodHandles.filterReturnValue(lookup.unreflectGetter(segment),
+							lookup.unreflectGetter(segment.getType().getField(field)));
+				} else
+					getter = lookup.unreflectGetter(clazz.getField(field));
+				return getter.asType(MethodType.methodType(double.class, Object.class));
+			} catch(Exception e) {
+				System.err.println(key+": Source "+toString()+" not accessible in "+clazz.getSimpleName()+": "+e.getMessage());
+				return MethodHandles.dropArguments(MethodHandles.constant(double.class, Double.NaN), 0, Object.class);
+			}
+		}
+
 		public String toString() {
 			if(class_n!=null)
 				return class_n+"."+field;
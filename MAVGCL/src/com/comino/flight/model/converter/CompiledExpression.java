@@ -0,0 +1,320 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.converter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.KeyFigureMetaData;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/*
+ * Expression compiled from exp4j syntax into a tree of evaluation nodes. Variables
+ * are bound to keyfigures, so evaluation neither looks up names nor allocates.
+ * Missing values of variables are evaluated as 0.
+ */
+
+public final class CompiledExpression {
+
+	private final Node root;
+	private final KeyFigureMetaData[] variables;
+
+	private CompiledExpression(Node root, KeyFigureMetaData[] variables) {
+		this.root = root;
+		this.variables = variables;
+	}
+
+	public static CompiledExpression compile(String expression, Map<String,KeyFigureMetaData> variables) {
+		Map<String,KeyFigureMetaData> bound = new HashMap<String,KeyFigureMetaData>();
+		Token[] tokens = ShuntingYard.convertToRPN(expression, new HashMap<String,Function>(),
+				new HashMap<String,Operator>(), variables.keySet());
+
+		Stack<Node> stack = new Stack<Node>();
+		for(Token token : tokens) {
+			switch(token.getType()) {
+			case Token.TOKEN_NUMBER:
+				stack.push(new Constant(((NumberToken)token).getValue()));
+				break;
+			case Token.TOKEN_VARIABLE:
+				String name = ((VariableToken)token).getName();
+				KeyFigureMetaData kf = variables.get(name);
+				if(kf!=null)
+					bound.put(name, kf);
+				stack.push(new Variable(kf));
+				break;
+			case Token.TOKEN_OPERATOR:
+				Operator op = ((OperatorToken)token).getOperator();
+				if(op.getNumOperands()==1)
+					stack.push(fold(new Unary(op, stack.pop())));
+				else {
+					Node r = stack.pop(); Node l = stack.pop();
+					stack.push(fold(new Binary(op, l, r)));
+				}
+				break;
+			case Token.TOKEN_FUNCTION:
+				Function f = ((FunctionToken)token).getFunction();
+				Node[] args = new Node[f.getNumArguments()];
+				for(int i=args.length-1;i>=0;i--)
+					args[i] = stack.pop();
+				stack.push(fold(args.length==1 ? new Function1(f, args[0]) : new FunctionN(f, args)));
+				break;
+			default:
+				throw new IllegalArgumentException("Unexpected token in "+expression);
+			}
+		}
+		if(stack.size()!=1)
+			throw new IllegalArgumentException("Invalid expression "+expression);
+		return new CompiledExpression(stack.pop(), bound.values().toArray(new KeyFigureMetaData[bound.size()]));
+	}
+
+	/*
+	 * Keyfigures this expression depends on.
+	 */
+	public KeyFigureMetaData[] getVariables() {
+		return variables;
+	}
+
+	public double evaluate(AnalysisDataModel data) {
+		return root.eval(data);
+	}
+
+	/*
+	 * Evaluates row 'index' of column data indexed by keyfigure slot.
+	 */
+	public double evaluate(float[][] columns, int index) {
+		return root.eval(columns, index);
+	}
+
+	/*
+	 * Evaluates with all variables set to x.
+	 */
+	public double evaluate(double x) {
+		return root.eval(x);
+	}
+
+	private static Node fold(Node node) {
+		for(Node child : node.children()) {
+			if(!(child instanceof Constant))
+				return node;
+		}
+		return new Constant(node.eval(0));
+	}
+
+	private static abstract class Node {
+		private static final Node[] NONE = new Node[0];
+
+		abstract double eval(AnalysisDataModel data);
+		abstract double eval(float[][] columns, int index);
+		abstract double eval(double x);
+
+		Node[] children() {
+			return NONE;
+		}
+	}
+
+	private static final class Constant extends Node {
+		private final double value;
+
+		Constant(double value) { this.value = value; }
+
+		double eval(AnalysisDataModel data) { return value; }
+		double eval(float[][] columns, int index) { return value; }
+		double eval(double x) { return value; }
+	}
+
+	private static final class Variable extends Node {
+		private final KeyFigureMetaData kf;
+
+		Variable(KeyFigureMetaData kf) { this.kf = kf; }
+
+		double eval(AnalysisDataModel data) {
+			if(kf==null)
+				return 0;
+			float v = data.getValue(kf);
+			return Float.isNaN(v) ? 0 : v;
+		}
+
+		double eval(float[][] columns, int index) {
+			if(kf==null || kf.slot < 0 || kf.slot >= columns.length || columns[kf.slot]==null)
+				return 0;
+			float v = columns[kf.slot][index];
+			return Float.isNaN(v) ? 0 : v;
+		}
+
+		double eval(double x) {
+			return x;
+		}
+	}
+
+	private static final class Unary extends Node {
+		private final boolean minus;
+		private final Node arg;
+
+		Unary(Operator op, Node arg) {
+			this.minus = op.getSymbol().equals("-");
+			this.arg = arg;
+		}
+
+		double eval(AnalysisDataModel data) { return apply(arg.eval(data)); }
+		double eval(float[][] columns, int index) { return apply(arg.eval(columns, index)); }
+		double eval(double x) { return apply(arg.eval(x)); }
+
+		private double apply(double a) {
+			return minus ? -a : a;
+		}
+
+		Node[] children() { return new Node[] { arg }; }
+	}
+
+	private static final class Binary extends Node {
+		private final Operator op;
+		private final char symbol;
+		private final Node l, r;
+
+		Binary(Operator op, Node l, Node r) {
+			this.op = op;
+			this.symbol = op.getSymbol().length()==1 ? op.getSymbol().charAt(0) : 0;
+			this.l = l; this.r = r;
+		}
+
+		double eval(AnalysisDataModel data) { return apply(l.eval(data), r.eval(data)); }
+		double eval(float[][] columns, int index) { return apply(l.eval(columns, index), r.eval(columns, index)); }
+		double eval(double x) { return apply(l.eval(x), r.eval(x)); }
+
+		private double apply(double a, double b) {
+			switch(symbol) {
+			case '+': return a + b;
+			case '-': return a - b;
+			case '*': return a * b;
+			case '/':
+				if(b==0)
+					throw new ArithmeticException("Division by zero!");
+				return a / b;
+			case '^': return Math.pow(a, b);
+			case '%':
+				if(b==0)
+					throw new ArithmeticException("Division by zero!");
+				return a % b;
+			default : return op.apply(a, b);
+			}
+		}
+
+		Node[] children() { return new Node[] { l, r }; }
+	}
+
+	private static final class Function1 extends Node {
+		private final Function f;
+		private final int id;
+		private final Node arg;
+
+		private static final List<String> INTRINSICS = Arrays.asList(
+				"abs", "sqrt", "sin", "cos", "tan", "asin", "acos", "atan",
+				"log", "log10", "exp", "floor", "ceil", "signum");
+
+		Function1(Function f, Node arg) {
+			this.f = f;
+			this.id = INTRINSICS.indexOf(f.getName());
+			this.arg = arg;
+		}
+
+		double eval(AnalysisDataModel data) { return apply(arg.eval(data)); }
+		double eval(float[][] columns, int index) { return apply(arg.eval(columns, index)); }
+		double eval(double x) { return apply(arg.eval(x)); }
+
+		private double apply(double a) {
+			switch(id) {
+			case 0:  return Math.abs(a);
+			case 1:  return Math.sqrt(a);
+			case 2:  return Math.sin(a);
+			case 3:  return Math.cos(a);
+			case 4:  return Math.tan(a);
+			case 5:  return Math.asin(a);
+			case 6:  return Math.acos(a);
+			case 7:  return Math.atan(a);
+			case 8:  return Math.log(a);
+			case 9:  return Math.log10(a);
+			case 10: return Math.exp(a);
+			case 11: return Math.floor(a);
+			case 12: return Math.ceil(a);
+			case 13: return Math.signum(a);
+			default: return f.apply(a);
+			}
+		}
+
+		Node[] children() { return new Node[] { arg }; }
+	}
+
+	private static final class FunctionN extends Node {
+		private final Function f;
+		private final Node[] args;
+
+		FunctionN(Function f, Node[] args) {
+			this.f = f;
+			this.args = args;
+		}
+
+		double eval(AnalysisDataModel data) {
+			double[] v = new double[args.length];
+			for(int i=0;i<v.length;i++) v[i] = args[i].eval(data);
+			return f.apply(v);
+		}
+
+		double eval(float[][] columns, int index) {
+			double[] v = new double[args.length];
+			for(int i=0;i<v.length;i++) v[i] = args[i].eval(columns, index);
+			return f.apply(v);
+		}
+
+		double eval(double x) {
+			double[] v = new double[args.length];
+			for(int i=0;i<v.length;i++) v[i] = args[i].eval(x);
+			return f.apply(v);
+		}
+
+		Node[] children() { return args; }
+	}
+}
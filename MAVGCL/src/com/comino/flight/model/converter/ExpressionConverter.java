@@ -33,31 +33,26 @@
 
 package com.comino.flight.model.converter;
 
-import com.comino.flight.model.AnalysisDataModel;
+import java.util.HashMap;
+import java.util.Map;
 
-import net.objecthunter.exp4j.Expression;
-import net.objecthunter.exp4j.ExpressionBuilder;
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.KeyFigureMetaData;
 
 public class ExpressionConverter extends SourceConverter {
 
-	private Expression calc = null;
-	private String kfname;
+	private CompiledExpression calc = null;
 
 	@Override
 	public void setParameter(String kfname, String[] params) {
-		this.kfname = kfname;
-		Runnable r = new Runnable() {
-			public void run() {
-				calc = new ExpressionBuilder(params[0]).variable(kfname).build();
-			}
-		};
-		new Thread(r).start();
+		Map<String,KeyFigureMetaData> variables = new HashMap<String,KeyFigureMetaData>();
+		variables.put(kfname, null);
+		calc = CompiledExpression.compile(params[0], variables);
 	}
 
 	@Override
 	public float convert(float val) {
-		calc.setVariable(kfname, val);
-		return (float)calc.evaluate();
+		return (float)calc.evaluate(val);
 	}
 
 	public ExpressionConverter() {
@@ -33,31 +33,48 @@
 
 package com.comino.flight.model.converter;
 
-import com.comino.flight.model.AnalysisDataModel;
+import java.util.HashMap;
+import java.util.Map;
 
-import net.objecthunter.exp4j.Expression;
-import net.objecthunter.exp4j.ExpressionBuilder;
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
 
 public class VirtualConverter extends SourceConverter {
 
-	private Expression calc = null;
+	private CompiledExpression calc = null;
 	private String[] params;
+	private String kfname;
 
 	@Override
 	public void setParameter(String kfname, String[] params) {
+		this.kfname = kfname;
 		this.params = params;
+	}
 
-		Runnable r = new Runnable() {
-			public void run() {
-				ExpressionBuilder exp = new ExpressionBuilder(params[0]);
-				if(params.length>0) {
-				for(int i=1;i<params.length;i++)
-				     exp.variable(params[i]);
-				}
-				calc = exp.build();
-			}
-		};
-		new Thread(r).start();
+	/*
+	 * Compiles the expression with its variables bound to the keyfigures of the
+	 * given model definition. Called once all keyfigures are known.
+	 */
+	public void bind(AnalysisDataModelMetaData md) {
+		Map<String,KeyFigureMetaData> variables = new HashMap<String,KeyFigureMetaData>();
+		for(int i=1;i<params.length;i++)
+			variables.put(params[i], md.getMetaData(params[i]));
+		try {
+			calc = CompiledExpression.compile(params[0], variables);
+		} catch(Exception e) {
+			calc = null;
+			System.err.println(kfname+": "+e.getMessage());
+		}
+	}
+
+	/*
+	 * Keyfigures the expression depends on.
+	 */
+	public KeyFigureMetaData[] getVariables() {
+		if(calc==null)
+			return new KeyFigureMetaData[0];
+		return calc.getVariables();
 	}
 
 	@Override
@@ -71,11 +88,15 @@ public class VirtualConverter extends SourceConverter {
 
 	@Override
 	public float convert(AnalysisDataModel data) {
-		if(params.length>1) {
-			for(int i=1;i<params.length;i++)
-        		calc.setVariable(params[i], data.getValue(params[i]));
-		}
-		return (float)calc.evaluate();
+		if(calc==null)
+			return Float.NaN;
+		return (float)calc.evaluate(data);
+	}
+
+	public float convert(float[][] columns, int index) {
+		if(calc==null)
+			return Float.NaN;
+		return (float)calc.evaluate(columns, index);
 	}
 
 }
@@ -34,9 +34,9 @@
 
 package com.comino.flight.model.service;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
@@ -45,10 +45,13 @@ import com.comino.flight.log.ulog.ULogFromMAVLinkReader;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.flight.observables.StateProperties;
+import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mav.control.IMAVController;
 import com.comino.msp.main.control.listener.IMAVLinkListener;
 import com.comino.msp.model.DataModel;
+import com.comino.msp.model.segment.LogMessage;
 import com.comino.msp.model.segment.Status;
 import com.comino.msp.utils.ExecutorService;
 
@@ -61,15 +64,20 @@ public class AnalysisModelService implements IMAVLinkListener {
 	public static  final int COLLECTING     	= 2;
 	public static  final int POST_COLLECTING    = 3;
 
+	public static  final int HOT_WINDOW_S       = 1800;
+
+	private static final String SPILL_PATH      = "/.MAVGCL";
+
 	private DataModel								  model   = null;
 	private ULogFromMAVLinkReader                   ulogger   = null;
 	private AnalysisDataModel				    	current   = null;
 	private AnalysisDataModel                        record   = null;
-	private List<AnalysisDataModel> 		      modelList   = null;
+	private AnalysisDataModelStore 		      modelList   = null;
 	private StateProperties                           state   = null;
 
 	private AnalysisDataModelMetaData                  meta  =  null;
-	private List<ICollectorRecordingListener>    listener  =  null;
+	private RecordingUpdateBus                      updates  =  null;
+	private EventTimeCollector                       events  =  null;
 
 	private VehicleHealthCheck health = null;
 
@@ -78,6 +86,12 @@ public class AnalysisModelService implements IMAVLinkListener {
 	private  int  totalTime_sec = 30;
 	private  int collector_interval_us = 50000;
 
+	private final TickHistogram tick_latency    = new TickHistogram();
+	private final TickHistogram tick_processing = new TickHistogram();
+	private volatile long       skipped_ticks   = 0;
+
+	private boolean event_time = false;
+
 	public static AnalysisModelService getInstance(IMAVController control) {
 		if(instance==null)
 			instance = new AnalysisModelService(control);
@@ -94,9 +108,10 @@ public class AnalysisModelService implements IMAVLinkListener {
 		this.health = new VehicleHealthCheck();
 
 		this.meta = AnalysisDataModelMetaData.getInstance();
-		this.listener = new ArrayList<ICollectorRecordingListener>();
+		this.updates  = new RecordingUpdateBus();
+		this.events   = new EventTimeCollector(meta);
 
-		this.modelList     = new ArrayList<AnalysisDataModel>(50000);
+		this.modelList     = new AnalysisDataModelStore(meta);
 		this.model         = control.getCurrentModel();
 		this.current       =  new AnalysisDataModel();
 		this.record        =  new AnalysisDataModel();
@@ -104,6 +119,10 @@ public class AnalysisModelService implements IMAVLinkListener {
 
 		this.ulogger = new ULogFromMAVLinkReader(control);
 
+		meta.addObserver((o,e) -> {
+			current.clear(); record.clear();
+		});
+
 		control.addMAVLinkListener(this);
 
 		Thread c = new Thread(new CombinedConverter());
@@ -111,17 +130,20 @@ public class AnalysisModelService implements IMAVLinkListener {
 	}
 
 	public AnalysisModelService(DataModel model) {
-		this.modelList     = new LinkedList<AnalysisDataModel>();
+		this.meta          = AnalysisDataModelMetaData.getInstance();
+		this.modelList     = new AnalysisDataModelStore(meta);
 		this.model         =  model;
 		this.current       =  new AnalysisDataModel();
 		this.state         = StateProperties.getInstance();
+		this.updates       = new RecordingUpdateBus();
+		this.events        = new EventTimeCollector(meta);
 
 		Thread c = new Thread(new CombinedConverter());
 		c.start();
 	}
 
 	public void registerListener(ICollectorRecordingListener l) {
-		listener.add(l);
+		updates.register(l);
 	}
 
 	public void setCollectorInterval(int interval_us) {
@@ -129,7 +151,20 @@ public class AnalysisModelService implements IMAVLinkListener {
 	}
 
 
-	public List<AnalysisDataModel> getModelList() {
+	/*
+	 * Rows older than the hot window are spilled to a temp file, the window is
+	 * set in seconds by the preferences, 0 keeps all rows in memory.
+	 */
+	private void configureSpill() {
+		int window_s = MAVPreferences.getInstance().getInt(MAVPreferences.HOT_WINDOW, HOT_WINDOW_S);
+		File dir = new File(System.getProperty("user.home")+SPILL_PATH);
+		if(window_s > 0 && (dir.isDirectory() || dir.mkdirs()))
+			modelList.setSpill(dir, (int)(window_s * 1000000L / collector_interval_us));
+		else
+			modelList.setSpill(null, 0);
+	}
+
+	public AnalysisDataModelStore getModelList() {
 		return modelList;
 	}
 
@@ -153,6 +188,31 @@ public class AnalysisModelService implements IMAVLinkListener {
 		return collector_interval_us/1000;
 	}
 
+	/*
+	 * Wakeup latency of the collector relative to its deadline since recording started
+	 */
+	public TickHistogram getTickLatency() {
+		return tick_latency;
+	}
+
+	/*
+	 * Processing time of a collector tick since recording started
+	 */
+	public TickHistogram getTickProcessing() {
+		return tick_processing;
+	}
+
+	public long getSkippedTicks() {
+		return skipped_ticks;
+	}
+
+	/*
+	 * Per source clocks and latencies of the event time mode
+	 */
+	public EventTimeCollector getEventTime() {
+		return events;
+	}
+
 	public boolean start() {
 
 		if(mode==PRE_COLLECTING) {
@@ -196,10 +256,9 @@ public class AnalysisModelService implements IMAVLinkListener {
 		mode = STOPPED;
 		modelList.clear();
 		list.forEach((e) -> {
-			e.calculateVirtualKeyFigures(meta);
 			modelList.add(e);
-
 		});
+		modelList.calculateVirtualKeyFigures(0, modelList.size());
 	}
 
 	public void dumpUlogFields() {
@@ -252,7 +311,7 @@ public class AnalysisModelService implements IMAVLinkListener {
 
 	public long getTotalRecordingTimeMS() {
 		if(modelList.size()> 0)
-			return (modelList.get(modelList.size()-1).tms) / 1000;
+			return modelList.getTms(modelList.size()-1) / 1000;
 		else
 			return 0;
 	}
@@ -273,76 +332,132 @@ public class AnalysisModelService implements IMAVLinkListener {
 	}
 
 
+	/*
+	 * Samples the model on an absolute deadline grid, so the period does not drift
+	 * with processing time. A tick late by less than one period runs immediately;
+	 * ticks missed entirely are skipped and counted.
+	 */
 	private class CombinedConverter implements Runnable {
 
-		long tms = 0; long tms_start =0; long wait = 0; int old_mode=STOPPED;
-		float perf = 0; float perf2=0; AnalysisDataModel m = null;
+		long tms = 0; long tms_start =0; int old_mode=STOPPED;
+		long deadline = 0; long wake = 0; AnalysisDataModel m = null;
+		AnalysisDataModel event = new AnalysisDataModel(); LogMessage pending = null;
 
 		@Override
 		public void run() {
 //			try { Thread.sleep(2000); } catch(Exception e) { }
 			System.out.println("CombinedConverter started");
+			deadline = System.nanoTime();
 			while(true) {
 
-				if(mode==STOPPED && old_mode != STOPPED) {
-					ulogger.enableLogging(false);
-					state.getRecordingProperty().set(false);
-				}
+				wake = System.nanoTime();
+				long latency_us = (wake - deadline) / 1000;
 
-				if(!model.sys.isStatus(Status.MSP_CONNECTED)) {
-					mode = STOPPED; old_mode = STOPPED;
-					LockSupport.parkNanos(2000000000);
-				}
+				/* a failing tick must not end recording */
+				try {
+					if(mode==STOPPED && old_mode != STOPPED) {
+						ulogger.enableLogging(false);
+						state.getRecordingProperty().set(false);
+						if(event_time) {
+							System.out.println(events.getLatencySummary()+", late updates: "+events.getLateCount());
+							events.stop();
+						}
+					}
 
-				health.check(model);
+					if(!model.sys.isStatus(Status.MSP_CONNECTED)) {
+						mode = STOPPED; old_mode = STOPPED;
+						LockSupport.parkNanos(2000000000);
+						deadline = wake = System.nanoTime(); latency_us = 0;
+					}
 
-				current.setValue("MAVGCLPERF", perf);
-				current.setValue("MAVGCLACC", perf2);
+					health.check(model);
 
-				synchronized(this) {
-				current.msg = null; wait = System.nanoTime();
-				current.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
+					current.setValue("MAVGCLLAT", latency_us / 1000f);
+					current.setValue("MAVGCLLAT99", tick_latency.getPercentile(99) / 1000f);
+					current.setValue("MAVGCLPROC", tick_processing.getPercentile(99) / 1000f);
+					current.setValue("MAVGCLSKIP", skipped_ticks);
 
+					synchronized(this) {
+					current.msg = null;
+					current.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
 
-				if(ulogger.isLogging()) {
-					//	record.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
-					record.setValues(KeyFigureMetaData.ULG_SOURCE,ulogger.getData(), meta);
-					record.calculateVirtualKeyFigures(AnalysisDataModelMetaData.getInstance());
-				}
-				if(model.msg != null && model.msg.tms > tms) {
-					current.msg = model.msg; record.msg = model.msg;
-					tms = current.msg.tms+100;
-				} else {
-					current.msg = null; record.msg = null;
-				}
 
-				current.calculateVirtualKeyFigures(AnalysisDataModelMetaData.getInstance());
-				}
+					if(ulogger.isLogging()) {
+						//	record.setValues(KeyFigureMetaData.MSP_SOURCE,model,meta);
+						record.setValues(KeyFigureMetaData.ULG_SOURCE,ulogger.getData(), meta);
+						record.calculateVirtualKeyFigures(AnalysisDataModelMetaData.getInstance());
+					}
+					if(model.msg != null && model.msg.tms > tms) {
+						current.msg = model.msg; record.msg = model.msg;
+						tms = current.msg.tms+100;
+					} else {
+						current.msg = null; record.msg = null;
+					}
 
-				if(mode!=STOPPED && old_mode == STOPPED) {
-					state.getLogLoadedProperty().set(false);
-					state.getRecordingProperty().set(true);
-					ulogger.enableLogging(true);
-					tms_start = System.nanoTime() / 1000;
-				}
+					current.calculateVirtualKeyFigures(AnalysisDataModelMetaData.getInstance());
 
-				if(mode!=STOPPED) {
+					/* source clocks are calibrated continuously, values are passed only while recording */
 					if(ulogger.isLogging())
-						m = record.clone();
+						events.sample(KeyFigureMetaData.ULG_SOURCE, ulogger.getData(), record, wake / 1000);
 					else
-						m = current.clone();
-					m.tms = System.nanoTime() / 1000 - tms_start;
-                    m.dt_sec = m.tms / 1e6f;
-					modelList.add(m);
+						events.sample(KeyFigureMetaData.MSP_SOURCE, model, current, wake / 1000);
+					}
+
+					if(mode!=STOPPED && old_mode == STOPPED) {
+						state.getLogLoadedProperty().set(false);
+						state.getRecordingProperty().set(true);
+						ulogger.enableLogging(true);
+						tms_start = System.nanoTime() / 1000;
+						tick_latency.reset(); tick_processing.reset(); skipped_ticks = 0;
+						configureSpill();
+						event_time = MAVPreferences.getInstance().getBoolean(MAVPreferences.EVENT_TIME, false);
+						if(event_time)
+							events.start(ulogger.isLogging() ? KeyFigureMetaData.ULG_SOURCE : KeyFigureMetaData.MSP_SOURCE,
+									ulogger.isLogging() ? record : current, wake / 1000, collector_interval_us);
+						pending = null;
+					}
 
-					for(ICollectorRecordingListener updater : listener)
-						updater.update(System.nanoTime());
+					if(mode!=STOPPED && event_time) {
+						/* rows are resampled in vehicle time and emitted with a fixed lag */
+						if(current.msg != null)
+							pending = current.msg;
+						while(events.poll(wake / 1000, event)) {
+							if(pending != null) {
+								event.msg = pending; pending = null;
+							}
+							event.dt_sec = event.tms / 1e6f;
+							event.calculateVirtualKeyFigures(meta);
+							modelList.add(event);
+							updates.publish();
+						}
+					} else if(mode!=STOPPED) {
+						if(ulogger.isLogging())
+							m = record;
+						else
+							m = current;
+						m.tms = System.nanoTime() / 1000 - tms_start;
+						m.dt_sec = m.tms / 1e6f;
+						modelList.add(m);
+						updates.publish();
+					}
+
+					old_mode = mode;
+				} catch(RuntimeException e) {
+					System.err.println(this.getClass().getSimpleName()+": "+e);
 				}
 
-				old_mode = mode;
-				perf = (collector_interval_us*1000 - (System.nanoTime()-wait))/1e6f;
-				LockSupport.parkNanos(collector_interval_us*1000 - (System.nanoTime()-wait) - 2000000);
-				perf2 = (System.nanoTime()-wait)/1e6f;
+				long now = System.nanoTime(), interval_ns = collector_interval_us * 1000L;
+				tick_latency.record(latency_us);
+				tick_processing.record((now - wake) / 1000);
+
+				deadline += interval_ns;
+				if(now - deadline >= interval_ns) {
+					long missed = (now - deadline) / interval_ns;
+					skipped_ticks += missed;
+					deadline += missed * interval_ns;
+				}
+				while(deadline - (now = System.nanoTime()) > 0)
+					LockSupport.parkNanos(deadline - now);
 			}
 		}
 	}
@@ -0,0 +1,252 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mavlink.messages.MAV_SEVERITY;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.msp.model.DataModel;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.generic.Segment;
+
+/*
+ * Event time stage of the collector: keyfigures are grouped by the segment (MSP) or
+ * topic (ULog) they are read from, each group carries the timestamp of its source.
+ * Whenever a source timestamp changes, the values of the group are passed to the
+ * resampler at the source time mapped to the local clock. Rows are emitted with a
+ * fixed lag, so late updates still fall into their row.
+ */
+
+public class EventTimeCollector {
+
+	private static final long LAG_US = 250000;
+	private static final int  WINDOW = 128;
+
+	private final AnalysisDataModelMetaData meta;
+	private final EventTimeResampler resampler = new EventTimeResampler(WINDOW);
+
+	private final Map<String,SourceClock> clocks = new LinkedHashMap<String,SourceClock>();
+	private volatile List<Group> groups = null;
+	private volatile boolean     reload = false;
+	private int                  type   = 0;
+
+	private KeyFigureMetaData[] local_kfs = null;
+	private LogMessage          start_msg = null;
+
+	public EventTimeCollector(AnalysisDataModelMetaData meta) {
+		this.meta = meta;
+		/* groups and resampler are rebuilt by the collector thread on its next sample */
+		meta.addObserver((o,e) -> {
+			groups = null;
+			reload = true;
+		});
+	}
+
+	/*
+	 * Called every collector tick with the source object (DataModel or ULog data map)
+	 * and the values already read from it.
+	 */
+	public void sample(int type, Object source, AnalysisDataModel values, long local_us) {
+		if(reload) {
+			reload = false;
+			resampler.resize(meta.getSlotCount());
+		}
+		List<Group> groups = this.groups;
+		if(groups == null || this.type != type)
+			groups = build(type, source);
+
+		for(Group g : groups) {
+			long t = g.timestamp(source);
+			if(t == g.last)
+				continue;
+			g.last = t;
+			long ev = g.clock.toLocal(t, local_us);
+			if(ev >= 0)
+				g.offer(ev, values);
+		}
+		for(KeyFigureMetaData kf : local_kfs)
+			resampler.offer(kf, local_us, values.getValue(kf));
+	}
+
+	/*
+	 * Starts a grid aligned to multiples of the interval in vehicle time, the vehicle
+	 * time of the first row is added as message to it.
+	 */
+	public void start(int type, AnalysisDataModel values, long local_us, long interval_us) {
+		SourceClock ref = null;
+		for(SourceClock c : clocks.values()) {
+			c.getLatency().reset();
+			if(ref == null && c.isCalibrated() && !c.isLocal())
+				ref = c;
+		}
+
+		long origin = local_us;
+		start_msg = null;
+		if(ref != null) {
+			long boot = Math.floorDiv(local_us - ref.getOffset(), interval_us) * interval_us;
+			origin = boot + ref.getOffset();
+			start_msg = new LogMessage(String.format("Event time: first row at vehicle time %.3fs (%s)",
+					boot / 1e6f, ref.getName()), MAV_SEVERITY.MAV_SEVERITY_INFO);
+		}
+		resampler.start(origin, interval_us, meta.getSlotCount());
+
+		/* last known values are the initial state of each group */
+		List<Group> groups = this.groups;
+		if(groups != null && this.type == type) {
+			for(Group g : groups) {
+				if(g.clock.getLastMapped() >= 0)
+					g.offer(g.clock.getLastMapped(), values);
+			}
+		}
+	}
+
+	public void stop() {
+		resampler.stop();
+	}
+
+	public boolean poll(long local_us, AnalysisDataModel row) {
+		if(!resampler.poll(local_us - LAG_US, row))
+			return false;
+		row.msg = start_msg; start_msg = null;
+		return true;
+	}
+
+	public long getLateCount() {
+		return resampler.getLateCount();
+	}
+
+	public Map<String,SourceClock> getClocks() {
+		return clocks;
+	}
+
+	public String getLatencySummary() {
+		StringBuilder b = new StringBuilder("Source latency p50/p99 [ms]:");
+		clocks.forEach((n,c) -> {
+			if(c.getLatency().getCount() > 0)
+				b.append(String.format(" %s %.1f/%.1f", n,
+						c.getLatency().getPercentile(50)/1000f, c.getLatency().getPercentile(99)/1000f));
+		});
+		return b.toString();
+	}
+
+	private List<Group> build(int type, Object source) {
+		Map<String,Group> by_source = new LinkedHashMap<String,Group>();
+		List<KeyFigureMetaData> local = new ArrayList<KeyFigureMetaData>();
+
+		for(KeyFigureMetaData kf : meta.getKeyFigures()) {
+			if(kf.isVirtual)
+				continue;
+			if(kf.sources.isEmpty()) {
+				local.add(kf);
+				continue;
+			}
+			KeyFigureMetaData.DataSource s = kf.sources.get(type);
+			if(s == null)
+				continue;
+			String name = type == KeyFigureMetaData.MSP_SOURCE ? s.class_n
+					: s.field.substring(0, Math.max(0, s.field.indexOf('.')));
+			Group g = by_source.get(name);
+			if(g == null) {
+				g = new Group(name, type == KeyFigureMetaData.ULG_SOURCE ? 1 : 0);
+				if(!g.resolve(type, source))
+					continue;
+				by_source.put(name, g);
+			}
+			g.kfs.add(kf);
+		}
+		List<Group> groups = new ArrayList<Group>(by_source.values());
+		this.local_kfs = local.toArray(new KeyFigureMetaData[local.size()]);
+		this.type = type;
+		this.groups = groups;
+		return groups;
+	}
+
+	private class Group {
+
+		final List<KeyFigureMetaData> kfs = new ArrayList<KeyFigureMetaData>();
+		final SourceClock clock;
+
+		Field  segment = null;
+		String key     = null;
+		long   last    = -1;
+
+		Group(String name, double scale) {
+			SourceClock c = clocks.get(name);
+			if(c == null) {
+				c = new SourceClock(name, scale);
+				clocks.put(name, c);
+			}
+			this.clock = c;
+		}
+
+		boolean resolve(int type, Object source) {
+			try {
+				if(type == KeyFigureMetaData.MSP_SOURCE)
+					segment = DataModel.class.getField(clock.getName());
+				else
+					key = clock.getName()+".timestamp";
+				return true;
+			} catch(Exception e) {
+				System.err.println(this.getClass().getSimpleName()+":"+e.getMessage());
+				return false;
+			}
+		}
+
+		long timestamp(Object source) {
+			try {
+				if(segment != null)
+					return ((Segment)segment.get(source)).tms;
+				Object t = ((Map<?,?>)source).get(key);
+				return t instanceof Number ? ((Number)t).longValue() : -1;
+			} catch(Exception e) {
+				return -1;
+			}
+		}
+
+		void offer(long t, AnalysisDataModel values) {
+			for(KeyFigureMetaData kf : kfs)
+				resampler.offer(kf, t, values.getValue(kf));
+		}
+	}
+
+}
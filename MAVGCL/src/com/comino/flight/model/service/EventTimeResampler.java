@@ -0,0 +1,162 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+import java.util.Arrays;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.KeyFigureMetaData;
+
+/*
+ * Resamples timestamped keyfigure updates onto a fixed grid. Each update fills the
+ * grid points between the previous update of the keyfigure and itself, either by
+ * holding the previous value or by linear interpolation. A row is emitted once the
+ * watermark passes its grid time; keyfigures without an update since then hold their
+ * last value. Updates older than the last row emitted are only used for holding.
+ */
+
+public class EventTimeResampler {
+
+	private final int window;
+
+	private float[][]           rows    = null;
+	private KeyFigureMetaData[] kfs     = null;
+	private long[]              last_t  = null;
+	private float[]             last_v  = null;
+	private long[]              filled  = null;
+
+	private long origin   = 0;
+	private long interval = 1;
+	private long next     = 0;
+	private long late     = 0;
+
+	public EventTimeResampler(int window) {
+		this.window = window;
+	}
+
+	public void start(long origin_us, long interval_us, int slots) {
+		this.origin = origin_us; this.interval = interval_us;
+		this.next = 0; this.late = 0;
+		rows   = new float[window][slots];
+		for(float[] r : rows)
+			Arrays.fill(r, Float.NaN);
+		kfs    = new KeyFigureMetaData[slots];
+		last_t = new long[slots];
+		last_v = new float[slots];
+		filled = new long[slots];
+		Arrays.fill(last_t, Long.MIN_VALUE);
+		Arrays.fill(last_v, Float.NaN);
+		Arrays.fill(filled, -1);
+	}
+
+	/*
+	 * Continues a started grid with a new model definition. Rows not yet emitted
+	 * restart empty, keyfigures hold no value until their next update.
+	 */
+	public void resize(int slots) {
+		if(rows == null)
+			return;
+		long k = next, l = late;
+		start(origin, interval, slots);
+		next = k; late = l;
+		Arrays.fill(filled, k - 1);
+	}
+
+	public void stop() {
+		rows = null;
+	}
+
+	public boolean isStarted() {
+		return rows != null;
+	}
+
+	public void offer(KeyFigureMetaData kf, long t, float v) {
+		int s = kf.slot;
+		if(rows == null || s < 0 || s >= kfs.length || t <= last_t[s])
+			return;
+		kfs[s] = kf;
+
+		long k_hi = Math.floorDiv(t - origin, interval);
+		if(k_hi >= next) {
+			long k_end = Math.min(k_hi, next + window - 1);
+			for(long k = Math.max(filled[s] + 1, next); k <= k_end; k++) {
+				long g = origin + k * interval;
+				float x;
+				if(g == t)
+					x = v;
+				else if(kf.interpolate && last_t[s] != Long.MIN_VALUE)
+					x = last_v[s] + (v - last_v[s]) * (g - last_t[s]) / (float)(t - last_t[s]);
+				else
+					x = last_v[s];
+				rows[(int)(k % window)][s] = x;
+			}
+			filled[s] = Math.max(filled[s], k_end);
+		} else if(k_hi < next - 1)
+			late++;
+
+		last_t[s] = t; last_v[s] = v;
+	}
+
+	/*
+	 * Writes the next row into 'row' if its grid time is not after 'watermark'. The
+	 * row time is relative to the origin.
+	 */
+	public boolean poll(long watermark, AnalysisDataModel row) {
+		if(rows == null || origin + next * interval > watermark)
+			return false;
+		float[] r = rows[(int)(next % window)];
+		for(int s=0;s<kfs.length;s++) {
+			if(kfs[s] == null)
+				continue;
+			if(filled[s] < next) {
+				r[s] = last_v[s];
+				filled[s] = next;
+			}
+			row.setValue(kfs[s], r[s]);
+			r[s] = Float.NaN;
+		}
+		row.tms = next * interval;
+		next++;
+		return true;
+	}
+
+	/*
+	 * Number of updates which arrived after the rows they belong to were emitted
+	 */
+	public long getLateCount() {
+		return late;
+	}
+
+}
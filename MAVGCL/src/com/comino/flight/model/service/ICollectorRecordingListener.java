@@ -2,6 +2,10 @@ package com.comino.flight.model.service;
 
 public interface ICollectorRecordingListener {
 
+	/*
+	 * Called on the FX thread at most once per pulse if samples were recorded
+	 * since the last call.
+	 */
 	public void update(long tms);
 
 }
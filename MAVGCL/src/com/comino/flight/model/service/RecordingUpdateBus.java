@@ -0,0 +1,90 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+/*
+ * Delivers recording updates to UI listeners. The collector only advances a
+ * sequence counter; a single AnimationTimer calls the listeners on the FX thread
+ * once per pulse if new samples were committed since the last one. Listeners read
+ * the rows added since their last update from the store, so any number of
+ * samples per pulse are coalesced and the FX queue is not used.
+ */
+
+public class RecordingUpdateBus {
+
+	private final List<ICollectorRecordingListener> listener = new CopyOnWriteArrayList<ICollectorRecordingListener>();
+
+	private volatile long sequence  = 0;
+	private long          delivered = 0;
+	private AnimationTimer pulse    = null;
+
+	public synchronized void register(ICollectorRecordingListener l) {
+		listener.add(l);
+		if(pulse==null) {
+			pulse = new AnimationTimer() {
+				@Override public void handle(long now) {
+					long s = sequence;
+					if(s == delivered)
+						return;
+					delivered = s;
+					for(ICollectorRecordingListener l : listener)
+						l.update(now);
+				}
+			};
+			Platform.runLater(() -> {
+				pulse.start();
+			});
+		}
+	}
+
+	/*
+	 * Called by the collector after a sample has been committed to the store.
+	 * Single writer only.
+	 */
+	public void publish() {
+		sequence = sequence + 1;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+}
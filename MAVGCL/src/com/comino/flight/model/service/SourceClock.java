@@ -0,0 +1,142 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+/*
+ * Maps the timestamps of one data source onto the local clock (System.nanoTime in us).
+ * If not known, the unit of the source (ms, us or ns) is derived from the rate its
+ * timestamps advance during the first second. The offset is the minimum of arrival time minus
+ * source time, so the mapping assumes the fastest delivery seen had no latency; the
+ * excess of each sample over that is recorded as its latency.
+ */
+
+public class SourceClock {
+
+	private static final long CALIBRATION_US = 1000000;
+
+	private final String        name;
+	private final TickHistogram latency = new TickHistogram();
+
+	private final double known;
+
+	private double scale  = 0;
+	private long   offset = Long.MAX_VALUE;
+	private long   t0 = -1, l0 = 0, last = -1, mapped = -1;
+
+	public SourceClock(String name) {
+		this(name, 0);
+	}
+
+	/*
+	 * A scale > 0 is the known unit of the source relative to us, no calibration needed
+	 */
+	public SourceClock(String name, double scale) {
+		this.name  = name;
+		this.known = scale;
+		this.scale = scale;
+	}
+
+	/*
+	 * Returns the local time of a source timestamp received at 'local_us', or -1 while
+	 * the clock is not calibrated or the sample is older than the last one.
+	 */
+	public long toLocal(long t, long local_us) {
+		if(t <= 0)
+			return -1;
+		if(t < last) {
+			/* reordered samples are dropped, a jump back by more than a second is a restart */
+			if(scale != 0 && (last - t) * scale < CALIBRATION_US)
+				return -1;
+			reset();
+		}
+		last = t;
+
+		if(scale == 0) {
+			if(t0 < 0) {
+				t0 = t; l0 = local_us;
+				return -1;
+			}
+			if(local_us - l0 < CALIBRATION_US || t == t0)
+				return -1;
+			double r = (double)(t - t0) / (local_us - l0);
+			scale = r > 30 ? 0.001 : (r < 0.03 ? 1000 : 1);
+		}
+
+		long ts = (long)(t * scale);
+		offset  = Math.min(offset, local_us - ts);
+		mapped  = ts + offset;
+		latency.record(local_us - mapped);
+		return mapped;
+	}
+
+	public boolean isCalibrated() {
+		return scale != 0;
+	}
+
+	/*
+	 * True if the source is stamped by the local clock rather than by the vehicle
+	 */
+	public boolean isLocal() {
+		return isCalibrated() && Math.abs(offset) < CALIBRATION_US;
+	}
+
+	/*
+	 * Local minus source time in us
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/*
+	 * Local time of the last sample mapped, -1 if none
+	 */
+	public long getLastMapped() {
+		return mapped;
+	}
+
+	public TickHistogram getLatency() {
+		return latency;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void reset() {
+		scale = known; offset = Long.MAX_VALUE;
+		t0 = -1; last = -1; mapped = -1;
+	}
+
+}
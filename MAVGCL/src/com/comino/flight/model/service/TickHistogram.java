@@ -0,0 +1,119 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.service;
+
+/*
+ * Log-linear histogram of durations in microseconds (HDR style): values below 32us
+ * are counted exactly, above that every power of two is split into 16 buckets, so
+ * the relative error of a percentile is below 1/16. Values above ~67s are clamped.
+ * Single writer; readers may see counts of a tick in progress.
+ */
+
+public class TickHistogram {
+
+	private static final int SUB_BITS  = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int MAX_EXP   = 26;
+	private static final int BUCKETS   = (MAX_EXP - SUB_BITS + 1) * SUB_COUNT + SUB_COUNT;
+
+	private final long[] counts = new long[BUCKETS];
+
+	private volatile long count = 0;
+	private volatile long max   = 0;
+	private long          sum   = 0;
+
+	public void record(long us) {
+		if(us < 0)
+			us = 0;
+		counts[index(us)]++;
+		sum += us;
+		if(us > max)
+			max = us;
+		count = count + 1;
+	}
+
+	/*
+	 * Returns the upper bound of the bucket containing the given percentile (0..100).
+	 */
+	public long getPercentile(double p) {
+		long n = count;
+		if(n == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(p / 100.0 * n)), seen = 0;
+		for(int i=0;i<BUCKETS;i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(upper(i), max);
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		long n = count;
+		return n > 0 ? (double)sum / n : 0;
+	}
+
+	public void reset() {
+		for(int i=0;i<BUCKETS;i++)
+			counts[i] = 0;
+		sum = 0; max = 0; count = 0;
+	}
+
+	private static int index(long v) {
+		if(v < 2 * SUB_COUNT)
+			return (int)v;
+		int e = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+		if(e == MAX_EXP && v >> MAX_EXP > 1)
+			return BUCKETS - 1;
+		return ((e - SUB_BITS) << SUB_BITS) + (int)(v >> (e - SUB_BITS));
+	}
+
+	private static long upper(int i) {
+		if(i < 2 * SUB_COUNT)
+			return i;
+		int e = (i >> SUB_BITS) + SUB_BITS - 1;
+		long m = (i & (SUB_COUNT - 1)) + SUB_COUNT;
+		return ((m + 1) << (e - SUB_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,577 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.comino.flight.model.AnalysisDataModel;
+import com.comino.flight.model.AnalysisDataModelMetaData;
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.converter.SourceConverter;
+import com.comino.flight.model.converter.VirtualConverter;
+import com.comino.msp.model.segment.LogMessage;
+import com.comino.msp.model.segment.Status;
+
+/*
+ * Columnar storage of recorded samples: One chunked column per keyfigure slot,
+ * allocated on first write. Rows are accessible as read-only AnalysisDataModel views.
+ *
+ * Rows are appended by a single writer and published by the volatile size, so
+ * readers need no locks. Chunks are never moved. clear() starts a new generation
+ * instead of modifying the current one; readers still holding a snapshot or row
+ * of the previous generation read consistent data, except for spilled chunks.
+ *
+ * If spilling is enabled, only the most recent rows are held in memory. Older
+ * column chunks are written to a temporary file and stay addressable by index.
+ */
+
+public class AnalysisDataModelStore extends AbstractList<AnalysisDataModel> {
+
+	public static final int CHUNK_BITS = 13;
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final int        CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final int INIT_CAPACITY = 16384;
+
+	private AnalysisDataModelMetaData meta = null;
+
+	private volatile Generation gen = null;
+
+	private int capacity = 0;
+
+	private File spill_dir = null;
+	private int  hot_rows  = 0;
+
+	private final Observer observer = (o,e) -> remap();
+
+	public AnalysisDataModelStore(AnalysisDataModelMetaData meta) {
+		this(meta,INIT_CAPACITY);
+	}
+
+	public AnalysisDataModelStore(AnalysisDataModelMetaData meta, int capacity) {
+		this.meta     = meta;
+		this.capacity = capacity;
+		this.gen      = new Generation(0, chunks(capacity));
+
+		meta.addObserver(observer);
+	}
+
+	@Override
+	public int size() {
+		return gen.size;
+	}
+
+	@Override
+	public AnalysisDataModel get(int index) {
+		return snapshot().get(index);
+	}
+
+	@Override
+	public synchronized boolean add(AnalysisDataModel m) {
+		Generation g = gen;
+		write(g, g.size, m);
+		g.size = g.size + 1;
+		if(hot_rows > 0 && (g.size & CHUNK_MASK) == 0)
+			spill(g);
+		return true;
+	}
+
+	@Override
+	public synchronized AnalysisDataModel set(int index, AnalysisDataModel m) {
+		Generation g = gen;
+		if(index < 0 || index >= g.size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+g.size);
+		AnalysisDataModel old = new Row(g, index).clone();
+		write(g, index, m);
+		for(Column c : g.columns) {
+			if(c!=null)
+				c.invalidate(index);
+		}
+		return old;
+	}
+
+	/*
+	 * Starts a new empty generation.
+	 */
+	@Override
+	public synchronized void clear() {
+		Generation g = gen;
+		gen = new Generation(g.epoch + 1, chunks(capacity));
+		g.close();
+	}
+
+	/*
+	 * Releases the rows and detaches the store from the model definition. Stores
+	 * used for a single file only must be disposed, the definition keeps them
+	 * reachable otherwise.
+	 */
+	public void dispose() {
+		meta.deleteObserver(observer);
+		clear();
+	}
+
+	/*
+	 * Keeps only the last 'hot_rows' rows in memory; older chunks are moved to a
+	 * temporary file in 'dir' and read back on access. 0 keeps all rows in memory.
+	 */
+	public synchronized void setSpill(File dir, int hot_rows) {
+		this.spill_dir = dir;
+		this.hot_rows  = dir!=null ? Math.max(0, hot_rows) : 0;
+	}
+
+	/*
+	 * Replaces the content by 'size' rows whose column chunks are provided on first
+	 * access by the loader. Only hashes listed are requested.
+	 */
+	public synchronized void attach(int size, long[] tms, int[] hashes, ColumnLoader loader) {
+		Generation g = new Generation(gen.epoch + 1, chunks(size));
+		for(int c=0;c * CHUNK_SIZE < size;c++) {
+			g.tms[c] = new long[CHUNK_SIZE];
+			System.arraycopy(tms, c * CHUNK_SIZE, g.tms[c], 0, Math.min(CHUNK_SIZE, size - c * CHUNK_SIZE));
+		}
+		Map<Integer,Column> columns = new HashMap<Integer,Column>();
+		for(int h : hashes)
+			columns.put(h, new Column(h, chunks(size), loader));
+		g.columns = mapColumns(columns);
+		g.size = size;
+		Generation old = gen;
+		gen = g;
+		old.close();
+	}
+
+	/*
+	 * Returns a read-only view of the rows published so far.
+	 */
+	public Snapshot snapshot() {
+		Generation g = gen;
+		return new Snapshot(g, g.size);
+	}
+
+	/*
+	 * Generation counter, incremented by each clear() or attach().
+	 */
+	public int getEpoch() {
+		return gen.epoch;
+	}
+
+	public float getValue(int index, KeyFigureMetaData kf) {
+		return gen.getValue(index, kf);
+	}
+
+	public synchronized void setValue(int index, KeyFigureMetaData kf, float value) {
+		Generation g = gen; Column c = g.column(kf, true);
+		if(c==null || index < 0 || index >= g.size)
+			return;
+		c.writable(index >>> CHUNK_BITS)[index & CHUNK_MASK] = value;
+		c.invalidate(index);
+	}
+
+	/*
+	 * True if the keyfigure holds recorded data.
+	 */
+	public boolean hasData(KeyFigureMetaData kf) {
+		return gen.column(kf, false)!=null;
+	}
+
+	/*
+	 * Summarizes the values of a keyfigure in rows [from,to). NaN values are skipped.
+	 * Returns false if the keyfigure holds no data.
+	 */
+	public boolean getStatistics(KeyFigureMetaData kf, int from, int to, SummaryPyramid.Stats stats) {
+		Generation g = gen; Column c = g.column(kf, false);
+		stats.clear();
+		if(c==null)
+			return false;
+		c.getSummary().summarize(c, g.size, from, to, stats);
+		return stats.count > 0;
+	}
+
+	/*
+	 * Calculates the virtual keyfigures of rows [from,to) column by column in
+	 * dependency order, chunk by chunk.
+	 */
+	public synchronized void calculateVirtualKeyFigures(int from, int to) {
+		Generation g = gen;
+		if(g.columns.length != meta.getSlotCount())
+			remap();
+		to = Math.min(to, g.size);
+		if(from >= to)
+			return;
+
+		float[][] view = new float[g.columns.length][];
+		for(KeyFigureMetaData kf : meta.getVirtualKeyFigures()) {
+			SourceConverter conv = kf.sources.get(KeyFigureMetaData.VIR_SOURCE).converter;
+			Column target = g.column(kf, true);
+			if(target==null)
+				continue;
+			for(int c = from >>> CHUNK_BITS; c <= (to - 1) >>> CHUNK_BITS; c++) {
+				if(conv instanceof VirtualConverter) {
+					Arrays.fill(view, null);
+					for(KeyFigureMetaData v : ((VirtualConverter)conv).getVariables()) {
+						Column vc = g.column(v, false);
+						if(vc!=null && v.slot < view.length)
+							view[v.slot] = vc.chunk(c);
+					}
+				}
+				float[] chunk = target.writable(c);
+				int end = Math.min(to, (c + 1) << CHUNK_BITS);
+				for(int i = Math.max(from, c << CHUNK_BITS);i<end;i++) {
+					try {
+						if(conv instanceof VirtualConverter)
+							chunk[i & CHUNK_MASK] = ((VirtualConverter)conv).convert(view, i & CHUNK_MASK);
+						else
+							chunk[i & CHUNK_MASK] = kf.calculateVirtualValue(new Row(g, i));
+					} catch(Exception e) {
+						chunk[i & CHUNK_MASK] = Float.NaN;
+					}
+				}
+			}
+			target.invalidate(from);
+		}
+	}
+
+	public long getTms(int index) {
+		return gen.getTms(index);
+	}
+
+	public Status getStatus(int index) {
+		return gen.status.get(index);
+	}
+
+	public void setStatus(int index, Status s) {
+		if(s!=null)
+			gen.status.put(index, s);
+		else
+			gen.status.remove(index);
+	}
+
+	public LogMessage getMessage(int index) {
+		return gen.messages.get(index);
+	}
+
+	public void setMessage(int index, LogMessage msg) {
+		if(msg!=null)
+			gen.messages.put(index, msg);
+		else
+			gen.messages.remove(index);
+	}
+
+	private void write(Generation g, int index, AnalysisDataModel m) {
+		float v; int c = index >>> CHUNK_BITS; int o = index & CHUNK_MASK;
+		if(g.columns.length != meta.getSlotCount())
+			remap();
+		for(KeyFigureMetaData kf : meta.getKeyFigureMap().values()) {
+			v = m.getValue(kf);
+			if(!Float.isNaN(v))
+				g.column(kf, true).writable(c)[o] = v;
+			else if(index < g.size && g.column(kf, false)!=null)
+				g.column(kf, false).writable(c)[o] = Float.NaN;
+		}
+		if(c >= g.tms.length)
+			g.tms = Arrays.copyOf(g.tms, Math.max(c + 1, g.tms.length * 2));
+		if(g.tms[c]==null)
+			g.tms[c] = new long[CHUNK_SIZE];
+		g.tms[c][o] = m.tms;
+		if(m.msg != null)
+			g.messages.put(index, m.msg.clone());
+		else
+			g.messages.remove(index);
+		if(m.status != null)
+			g.status.put(index, m.status.clone());
+		else
+			g.status.remove(index);
+	}
+
+	private void spill(Generation g) {
+		int limit = (g.size - hot_rows) >> CHUNK_BITS;
+		if(limit <= 0)
+			return;
+		try {
+			if(g.spill==null)
+				g.spill = new ChunkSpill(spill_dir);
+			for(Column c : g.columns) {
+				if(c!=null)
+					c.spill(limit, g.spill);
+			}
+		} catch(IOException e) {
+			System.err.println(this.getClass().getSimpleName()+": Spilling disabled: "+e.getMessage());
+			hot_rows = 0;
+		}
+	}
+
+	/*
+	 * Reassigns columns to the slots of the current metadata by keyfigure hash,
+	 * so that recorded data survives a reload of the model definition.
+	 */
+	private synchronized void remap() {
+		Generation g = gen;
+		Map<Integer,Column> old = new HashMap<Integer,Column>();
+		for(Column c : g.columns) {
+			if(c!=null)
+				old.put(c.hash, c);
+		}
+		g.hashes  = mapHashes();
+		g.columns = mapColumns(old);
+	}
+
+	private Column[] mapColumns(Map<Integer,Column> columns) {
+		int count = meta.getSlotCount();
+		Column[] c = new Column[count];
+		for(KeyFigureMetaData kf : meta.getKeyFigureMap().values()) {
+			if(kf.slot < 0 || kf.slot >= count)
+				continue;
+			c[kf.slot] = columns.get(kf.hash);
+		}
+		return c;
+	}
+
+	private int[] mapHashes() {
+		int count = meta.getSlotCount();
+		int[] h = new int[count];
+		for(KeyFigureMetaData kf : meta.getKeyFigureMap().values()) {
+			if(kf.slot >= 0 && kf.slot < count)
+				h[kf.slot] = kf.hash;
+		}
+		return h;
+	}
+
+	private static int chunks(int rows) {
+		return Math.max(1, (rows + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+	}
+
+	public interface ColumnLoader {
+		/*
+		 * Returns chunk 'c' of the column with the given keyfigure hash as an array of
+		 * length CHUNK_SIZE, filled with NaN beyond the stored rows, or null.
+		 */
+		float[] loadChunk(int hash, int c) throws Exception;
+	}
+
+	/*
+	 * Rows [0,size) of one generation.
+	 */
+	public final class Snapshot {
+
+		private final Generation g;
+		private final int size;
+
+		private Snapshot(Generation g, int size) {
+			this.g = g;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/*
+		 * False if the store has been cleared or replaced since.
+		 */
+		public boolean isCurrent() {
+			return g == gen;
+		}
+
+		public AnalysisDataModel get(int index) {
+			if(index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+			return new Row(g, index);
+		}
+
+		public float getValue(int index, KeyFigureMetaData kf) {
+			return index < size ? g.getValue(index, kf) : Float.NaN;
+		}
+
+		public long getTms(int index) {
+			return index < size ? g.getTms(index) : 0;
+		}
+
+		public LogMessage getMessage(int index) {
+			return index < size ? g.messages.get(index) : null;
+		}
+
+		public Status getStatus(int index) {
+			return index < size ? g.status.get(index) : null;
+		}
+
+		/*
+		 * Returns chunk c of a keyfigure, valid up to size(), or null if it holds no data.
+		 */
+		public float[] getChunk(KeyFigureMetaData kf, int c) {
+			Column column = g.column(kf, false);
+			return column!=null ? column.chunk(c) : null;
+		}
+
+		public boolean hasData(KeyFigureMetaData kf) {
+			return g.column(kf, false)!=null;
+		}
+	}
+
+	private final class Generation {
+
+		final int epoch;
+
+		volatile int       size    = 0;
+		volatile Column[]  columns = new Column[0];
+		volatile int[]     hashes  = new int[0];
+		volatile long[][]  tms;
+
+		final Map<Integer,LogMessage> messages = new ConcurrentHashMap<Integer,LogMessage>();
+		final Map<Integer,Status>     status   = new ConcurrentHashMap<Integer,Status>();
+
+		ChunkSpill spill = null;
+
+		Generation(int epoch, int chunks) {
+			this.epoch   = epoch;
+			this.tms     = new long[chunks][];
+			this.hashes  = mapHashes();
+			this.columns = mapColumns(new HashMap<Integer,Column>());
+		}
+
+		/*
+		 * Column of the keyfigure in this generation, created if requested.
+		 */
+		Column column(KeyFigureMetaData kf, boolean create) {
+			int[] h = hashes; Column[] c = columns; int s = kf.slot;
+			if(s < 0 || s >= h.length || h[s] != kf.hash) {
+				if(kf.hash == 0)
+					return null;
+				KeyFigureMetaData m = meta.getKeyFigureMap().get(kf.hash);
+				if(m==null || m.slot < 0 || m.slot >= h.length || h[m.slot] != kf.hash)
+					return null;
+				s = m.slot;
+			}
+			if(s >= c.length)
+				return null;
+			if(c[s]==null && create)
+				c[s] = new Column(kf.hash, tms.length);
+			return c[s]!=null && c[s].hash == kf.hash ? c[s] : null;
+		}
+
+		float getValue(int index, KeyFigureMetaData kf) {
+			Column c = column(kf, false);
+			return c!=null ? c.get(index) : Float.NaN;
+		}
+
+		void close() {
+			if(spill!=null)
+				spill.close();
+		}
+
+		long getTms(int index) {
+			long[][] t = tms; int c = index >>> CHUNK_BITS;
+			if(index < 0 || c >= t.length || t[c]==null)
+				return 0;
+			return t[c][index & CHUNK_MASK];
+		}
+	}
+
+	private class Row extends AnalysisDataModel {
+
+		private final transient Generation g;
+		private final transient int index;
+
+		Row(Generation g, int index) {
+			super(null);
+			this.g      = g;
+			this.index  = index;
+			this.tms    = g.getTms(index);
+			this.dt_sec = this.tms / 1e6f;
+			this.msg    = g.messages.get(index);
+			this.status = g.status.get(index);
+		}
+
+		@Override
+		public float getValue(String kf) {
+			KeyFigureMetaData m = meta.getMetaData(kf);
+			if(m==null)
+				return 0;
+			float v = g.getValue(index, m);
+			return Float.isNaN(v) ? 0 : v;
+		}
+
+		@Override
+		public float getValue(KeyFigureMetaData m) {
+			return g.getValue(index, m);
+		}
+
+		@Override
+		public AnalysisDataModel clone() {
+			AnalysisDataModel d = new AnalysisDataModel();
+			for(KeyFigureMetaData kf : meta.getKeyFigureMap().values()) {
+				float v = getValue(kf);
+				if(!Float.isNaN(v))
+					d.setValue(kf, v);
+			}
+			d.tms = tms; d.dt_sec = dt_sec;
+			if(msg!=null)
+				d.msg = msg.clone();
+			if(status!=null)
+				d.status = status.clone();
+			return d;
+		}
+
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException("Row of "+AnalysisDataModelStore.class.getSimpleName()+" is read-only");
+		}
+
+		@Override
+		public void setValue(String kf, float value) {
+			throw new UnsupportedOperationException("Row of "+AnalysisDataModelStore.class.getSimpleName()+" is read-only");
+		}
+
+		@Override
+		public void setValue(KeyFigureMetaData m, float value) {
+			throw new UnsupportedOperationException("Row of "+AnalysisDataModelStore.class.getSimpleName()+" is read-only");
+		}
+
+		@Override
+		public void setValues(int type, Object source, AnalysisDataModelMetaData md) {
+			throw new UnsupportedOperationException("Row of "+AnalysisDataModelStore.class.getSimpleName()+" is read-only");
+		}
+
+		@Override
+		public void calculateVirtualKeyFigures(AnalysisDataModelMetaData md) {
+			throw new UnsupportedOperationException("Row of "+AnalysisDataModelStore.class.getSimpleName()+" is read-only");
+		}
+	}
+}
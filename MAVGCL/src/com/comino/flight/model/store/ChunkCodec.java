@@ -0,0 +1,101 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Compact binary form of column chunks: Floats are XOR'ed with their predecessor
+ * and deflated, so constant or slowly changing values compress well.
+ */
+
+public final class ChunkCodec {
+
+	private ChunkCodec() { }
+
+	public static byte[] encodeFloats(float[] column, int from, int to) {
+		ByteBuffer b = ByteBuffer.allocate((to - from) * 4);
+		int last = 0, bits;
+		for(int i=from;i<to;i++) {
+			bits = Float.floatToRawIntBits(column[i]);
+			b.putInt(bits ^ last);
+			last = bits;
+		}
+		return deflate(b.array());
+	}
+
+	public static void decodeFloats(byte[] data, float[] column, int from, int to) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(inflate(data, (to - from) * 4));
+		int last = 0;
+		for(int i=from;i<to;i++) {
+			last = b.getInt() ^ last;
+			column[i] = Float.intBitsToFloat(last);
+		}
+	}
+
+	public static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] out = new byte[data.length / 2 + 64]; int len = 0;
+		while(!deflater.finished()) {
+			if(len == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			len += deflater.deflate(out, len, out.length - len);
+		}
+		deflater.end();
+		return Arrays.copyOf(out, len);
+	}
+
+	public static byte[] inflate(byte[] data, int size) throws IOException {
+		Inflater inflater = new Inflater();
+		byte[] out = new byte[size];
+		try {
+			inflater.setInput(data);
+			if(inflater.inflate(out) != size)
+				throw new IOException("Corrupt block");
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt block: "+e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return out;
+	}
+}
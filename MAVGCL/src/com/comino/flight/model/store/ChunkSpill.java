@@ -0,0 +1,107 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Temporary file holding column chunks moved out of memory. Chunks are appended
+ * in encoded form; a chunk written again supersedes the previous record.
+ */
+
+final class ChunkSpill {
+
+	private final File             file;
+	private final RandomAccessFile raf;
+	private final FileChannel      channel;
+
+	private final Map<Long,long[]> index = new ConcurrentHashMap<Long,long[]>();
+
+	ChunkSpill(File dir) throws IOException {
+		dir.mkdirs();
+		this.file    = File.createTempFile("recording", ".spill", dir);
+		this.file.deleteOnExit();
+		this.raf     = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+	}
+
+	synchronized void write(int hash, int c, float[] chunk) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(ChunkCodec.encodeFloats(chunk, 0, chunk.length));
+		long ofs = channel.size(); int len = b.remaining();
+		while(b.hasRemaining())
+			channel.write(b, ofs + b.position());
+		index.put(key(hash, c), new long[] { ofs, len });
+	}
+
+	float[] read(int hash, int c) throws IOException {
+		long[] e = index.get(key(hash, c));
+		if(e==null)
+			return null;
+		ByteBuffer b = ByteBuffer.allocate((int)e[1]);
+		while(b.hasRemaining()) {
+			if(channel.read(b, e[0] + b.position()) < 0)
+				throw new IOException("Spilled chunk truncated");
+		}
+		float[] chunk = new float[AnalysisDataModelStore.CHUNK_SIZE];
+		ChunkCodec.decodeFloats(b.array(), chunk, 0, chunk.length);
+		return chunk;
+	}
+
+	boolean contains(int hash, int c) {
+		return index.containsKey(key(hash, c));
+	}
+
+	void remove(int hash, int c) {
+		index.remove(key(hash, c));
+	}
+
+	void close() {
+		index.clear();
+		try {
+			raf.close();
+		} catch (IOException e) { }
+		file.delete();
+	}
+
+	private static Long key(int hash, int c) {
+		return ((long)hash << 32) | (c & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,186 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Values of one keyfigure in fixed size chunks. Chunks are appended by a single
+ * writer and never moved, growing only copies the chunk directory. Chunks not
+ * in memory are requested from the loader on first access and kept. Spilled
+ * chunks are read back on access, only the last one read is kept.
+ */
+
+final class Column {
+
+	final int hash;
+
+	private volatile float[][] chunks;
+
+	private AnalysisDataModelStore.ColumnLoader loader = null;
+	private volatile SummaryPyramid summary = null;
+
+	private volatile ChunkSpill spill  = null;
+	private volatile Cached     cached = null;
+
+	Column(int hash, int chunk_count) {
+		this.hash   = hash;
+		this.chunks = new float[Math.max(1, chunk_count)][];
+	}
+
+	Column(int hash, int chunk_count, AnalysisDataModelStore.ColumnLoader loader) {
+		this(hash, chunk_count);
+		this.loader = loader;
+	}
+
+	float get(int index) {
+		if(index < 0)
+			return Float.NaN;
+		float[] chunk = chunk(index >>> AnalysisDataModelStore.CHUNK_BITS);
+		if(chunk==null)
+			return Float.NaN;
+		return chunk[index & AnalysisDataModelStore.CHUNK_MASK];
+	}
+
+	/*
+	 * Returns the chunk, or null if it holds no data.
+	 */
+	float[] chunk(int c) {
+		float[][] d = chunks;
+		if(c >= d.length)
+			return null;
+		float[] chunk = d[c];
+		if(chunk==null && spill!=null)
+			chunk = restore(c);
+		if(chunk==null && loader!=null)
+			chunk = load(c);
+		return chunk;
+	}
+
+	/*
+	 * Returns the chunk for writing, allocated if required.
+	 */
+	float[] writable(int c) {
+		float[][] d = chunks;
+		if(c >= d.length) {
+			d = Arrays.copyOf(d, Math.max(c + 1, d.length * 2));
+			chunks = d;
+		}
+		float[] chunk = d[c];
+		if(chunk==null && spill!=null && spill.contains(hash, c)) {
+			chunk = restore(c);
+			d[c] = chunk;
+			spill.remove(hash, c);
+			cached = null;
+		}
+		if(chunk==null && loader!=null)
+			chunk = load(c);
+		if(chunk==null) {
+			chunk = new float[AnalysisDataModelStore.CHUNK_SIZE];
+			Arrays.fill(chunk, Float.NaN);
+			d[c] = chunk;
+		}
+		return chunk;
+	}
+
+	/*
+	 * Moves the chunks below 'limit' held in memory to the spill file. The
+	 * directory is replaced, so readers see either the chunk or the spilled entry.
+	 */
+	synchronized void spill(int limit, ChunkSpill s) throws IOException {
+		float[][] d = chunks; float[][] n = null;
+		for(int c=0;c<limit && c<d.length;c++) {
+			if(d[c]==null)
+				continue;
+			s.write(hash, c, d[c]);
+			if(n==null)
+				n = d.clone();
+			n[c] = null;
+		}
+		if(n!=null) {
+			spill  = s;
+			chunks = n;
+		}
+	}
+
+	synchronized SummaryPyramid getSummary() {
+		if(summary==null)
+			summary = new SummaryPyramid();
+		return summary;
+	}
+
+	void invalidate(int index) {
+		SummaryPyramid s = summary;
+		if(s!=null)
+			s.invalidate(index);
+	}
+
+	private float[] restore(int c) {
+		Cached k = cached;
+		if(k!=null && k.c == c)
+			return k.data;
+		try {
+			float[] chunk = spill.read(hash, c);
+			if(chunk!=null)
+				cached = new Cached(c, chunk);
+			return chunk;
+		} catch(IOException e) {
+			System.err.println(this.getClass().getSimpleName()+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized float[] load(int c) {
+		float[][] d = chunks;
+		if(d[c]!=null)
+			return d[c];
+		try {
+			d[c] = loader.loadChunk(hash, c);
+		} catch(Exception e) {
+			System.err.println(this.getClass().getSimpleName()+": "+e.getMessage());
+		}
+		return d[c];
+	}
+
+	private static final class Cached {
+		final int     c;
+		final float[] data;
+
+		Cached(int c, float[] data) {
+			this.c = c; this.data = data;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.model.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Summary pyramid of a column: Level k holds count/min/max/sum/sum of squares and
+ * the index of the absolute peak for each complete block of 2^k samples. Levels
+ * are extended up to the current size on query; a range is then summarized from
+ * O(log n) blocks. Levels below BASE_LEVEL are not stored, the raw samples are
+ * read instead.
+ */
+
+public class SummaryPyramid {
+
+	private static final int BASE_LEVEL = 4;
+
+	private final List<Level> levels = new ArrayList<Level>();
+	private final Stats scratch = new Stats();
+	private int built = 0;
+
+	/*
+	 * Marks all samples from index on as changed.
+	 */
+	synchronized void invalidate(int index) {
+		if(index < built)
+			built = Math.max(0, index);
+	}
+
+	/*
+	 * Summarizes the samples [from,to) of the column, which holds 'size' valid samples.
+	 */
+	synchronized void summarize(Column column, int size, int from, int to, Stats stats) {
+		stats.clear();
+		to = Math.min(to, size);
+		if(from < 0)
+			from = 0;
+		if(to > built)
+			extend(column, size);
+
+		int top = BASE_LEVEL + levels.size() - 1;
+		int i = from;
+		while(i < to) {
+			int k = Math.min(i == 0 ? top : Integer.numberOfTrailingZeros(i), 31 - Integer.numberOfLeadingZeros(to - i));
+			k = Math.min(k, top);
+			if(k >= BASE_LEVEL) {
+				levels.get(k - BASE_LEVEL).addTo(i >> k, stats);
+				i += 1 << k;
+			} else {
+				stats.add(column.get(i), i);
+				i++;
+			}
+		}
+	}
+
+	private void extend(Column column, int size) {
+		for(int k = BASE_LEVEL; (1 << k) <= size; k++) {
+			if(k - BASE_LEVEL == levels.size())
+				levels.add(new Level());
+			Level level = levels.get(k - BASE_LEVEL);
+			int blocks = size >> k;
+			level.ensure(blocks);
+			for(int j = built >> k; j < blocks; j++) {
+				if(k == BASE_LEVEL)
+					level.set(j, column, j << k, (j + 1) << k, scratch);
+				else
+					level.set(j, levels.get(k - BASE_LEVEL - 1), j << 1, scratch);
+			}
+		}
+		built = size;
+	}
+
+	private static class Level {
+
+		int[]    count = new int[0];
+		int[]    peak  = new int[0];
+		float[]  abs   = new float[0];
+		float[]  min   = new float[0];
+		float[]  max   = new float[0];
+		double[] sum   = new double[0];
+		double[] sumsq = new double[0];
+
+		void ensure(int blocks) {
+			if(blocks <= count.length)
+				return;
+			int n = Math.max(blocks, count.length + (count.length >> 1) + 16);
+			count = Arrays.copyOf(count, n);
+			peak  = Arrays.copyOf(peak, n);
+			abs   = Arrays.copyOf(abs, n);
+			min   = Arrays.copyOf(min, n);
+			max   = Arrays.copyOf(max, n);
+			sum   = Arrays.copyOf(sum, n);
+			sumsq = Arrays.copyOf(sumsq, n);
+		}
+
+		void set(int j, Column column, int from, int to, Stats s) {
+			s.clear();
+			float[] chunk = column.chunk(from >>> AnalysisDataModelStore.CHUNK_BITS);
+			if(chunk!=null) {
+				int ofs = from & ~AnalysisDataModelStore.CHUNK_MASK;
+				for(int i = from; i < to; i++)
+					s.add(chunk[i - ofs], i);
+			}
+			set(j, s.count, s.min, s.max, s.sum, s.sumsq, s.peak, s.peak_abs);
+		}
+
+		void set(int j, Level child, int c, Stats s) {
+			s.clear();
+			child.addTo(c, s);
+			child.addTo(c+1, s);
+			set(j, s.count, s.min, s.max, s.sum, s.sumsq, s.peak, s.peak_abs);
+		}
+
+		private void set(int j, int c, float mi, float ma, double s, double sq, int p, float pa) {
+			count[j] = c; min[j] = mi; max[j] = ma; sum[j] = s; sumsq[j] = sq; peak[j] = p; abs[j] = pa;
+		}
+
+		void addTo(int j, Stats stats) {
+			if(count[j] > 0)
+				stats.add(count[j], min[j], max[j], sum[j], sumsq[j], peak[j], abs[j]);
+		}
+	}
+
+	public static class Stats {
+
+		public int    count;
+		public float  min;
+		public float  max;
+		public double sum;
+		public double sumsq;
+		public int    peak;
+
+		private float peak_abs;
+
+		public Stats() {
+			clear();
+		}
+
+		public void clear() {
+			count = 0; min = Float.NaN; max = Float.NaN; sum = 0; sumsq = 0; peak = -1; peak_abs = -1;
+		}
+
+		public float getAvg() {
+			return count > 0 ? (float)(sum / count) : Float.NaN;
+		}
+
+		public float getStdDev() {
+			if(count == 0)
+				return Float.NaN;
+			double avg = sum / count;
+			return (float)Math.sqrt(Math.max(0, sumsq / count - avg * avg));
+		}
+
+		void add(float v, int index) {
+			if(Float.isNaN(v))
+				return;
+			add(1, v, v, v, (double)v * v, index, Math.abs(v));
+		}
+
+		void add(int c, float mi, float ma, double s, double sq, int p, float pa) {
+			if(count == 0 || mi < min) min = mi;
+			if(count == 0 || ma > max) max = ma;
+			if(pa > peak_abs) { peak_abs = pa; peak = p; }
+			count += c; sum += s; sumsq += sq;
+		}
+	}
+}
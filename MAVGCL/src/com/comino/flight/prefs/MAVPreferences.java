@@ -55,6 +55,8 @@ public class MAVPreferences {
 	public final static String ULOGGER          = "ULOGGER";
 	public final static String TUNING_GROUP     = "TUNING_GROUP";
 	public final static String CTRLPOS          = "CTRLPOS";
+	public final static String HOT_WINDOW       = "HOTWINDOW";
+	public final static String EVENT_TIME       = "EVENTTIME";
 
 	private static Preferences prefs = null;
 
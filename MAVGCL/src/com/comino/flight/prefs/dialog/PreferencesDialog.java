@@ -38,6 +38,7 @@ import java.io.IOException;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
+import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.mav.control.IMAVController;
 import com.comino.msp.log.MSPLogger;
@@ -85,6 +86,12 @@ public class PreferencesDialog  {
 	@FXML
 	private CheckBox ulog;
 
+	@FXML
+	private CheckBox event_time;
+
+	@FXML
+	private TextField hot_window;
+
 	private IMAVController control;
 	private Preferences userPrefs;
 
@@ -144,6 +151,8 @@ public class PreferencesDialog  {
 		path.getEditor().setText(userPrefs.get(MAVPreferences.PREFS_DIR,System.getProperty("user.home")));
 		autosave.selectedProperty().set(userPrefs.getBoolean(MAVPreferences.AUTOSAVE, false));
 		ulog.selectedProperty().set(userPrefs.getBoolean(MAVPreferences.ULOGGER, false));
+		event_time.selectedProperty().set(userPrefs.getBoolean(MAVPreferences.EVENT_TIME, false));
+		hot_window.setText(String.valueOf(userPrefs.getInt(MAVPreferences.HOT_WINDOW, AnalysisModelService.HOT_WINDOW_S)));
 
 		if(prefDialog.showAndWait().get().booleanValue()) {
 
@@ -153,6 +162,12 @@ public class PreferencesDialog  {
 			userPrefs.put(MAVPreferences.PREFS_DIR,path.getEditor().getText());
 			userPrefs.putBoolean(MAVPreferences.AUTOSAVE,autosave.isSelected());
 			userPrefs.putBoolean(MAVPreferences.ULOGGER,ulog.isSelected());
+			userPrefs.putBoolean(MAVPreferences.EVENT_TIME,event_time.isSelected());
+			try {
+				userPrefs.putInt(MAVPreferences.HOT_WINDOW, Math.max(0, Integer.parseInt(hot_window.getText().trim())));
+			} catch (NumberFormatException e) {
+				// keep the previous window
+			}
 
 			try {
 				userPrefs.flush();
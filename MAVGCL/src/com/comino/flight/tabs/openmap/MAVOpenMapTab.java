@@ -48,6 +48,7 @@ import com.comino.flight.FXMLLoadHelper;
 import com.comino.flight.log.FileHandler;
 import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.widgets.charts.control.ChartControlWidget;
 import com.comino.flight.widgets.charts.control.IChartControl;
@@ -271,12 +272,13 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 						(dataService.getModelList().size()-index)>2*MAP_UPDATE_MS/dataService.getCollectorInterval_ms()) {
 
 
+					AnalysisDataModelStore.Snapshot list = dataService.getModelList().snapshot();
 					gc.setStroke(Color.DARKKHAKI); gc.setFill(Color.DARKKHAKI);
 					gc.setLineWidth(2);
-					for(int i=index; i<dataService.getModelList().size();
+					for(int i=index; i<list.size();
 							i += MAP_UPDATE_MS/dataService.getCollectorInterval_ms()) {
 
-						m = dataService.getModelList().get(i);
+						m = list.get(i);
 
 						if(m.getValue(TYPES[type][0])==0 && m.getValue(TYPES[type][1]) == 0)
 							continue;
@@ -295,7 +297,7 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 						p0 = map.getMapArea().getMapPoint(
 								m.getValue(TYPES[type][0]),m.getValue(TYPES[type][1]));
 					}
-					index = dataService.getModelList().size();
+					index = list.size();
 				}
 			}
 
@@ -360,8 +362,9 @@ public class MAVOpenMapTab extends BorderPane implements IChartControl {
 
 				int current_x1_pt = dataService.calculateX0Index(nv.floatValue());
 
-				if(dataService.getModelList().size()>0 && current_x1_pt > 0)
-					model = dataService.getModelList().get(current_x1_pt);
+				AnalysisDataModelStore.Snapshot list = dataService.getModelList().snapshot();
+				if(list.size()>current_x1_pt && current_x1_pt > 0)
+					model = list.get(current_x1_pt);
 				else
 					model = dataService.getCurrent();
 
@@ -139,13 +139,19 @@ public class ChartControlWidget extends WidgetPane  {
 
 
 		state.getLogLoadedProperty().addListener((observable, oldValue, newValue) -> {
-			if(newValue.booleanValue()) {
-				if(modelService.getModelList().size() < totalTime_sec * 1000 /  modelService.getCollectorInterval_ms() || modelService.isCollecting())
-					scroll.setDisable(true);
-				else
-					scroll.setDisable(false);
-				scroll.setValue(1);
-			}
+			if(newValue.booleanValue())
+				updateScroll();
+		});
+
+		state.getProgressProperty().addListener((observable, oldvalue, newvalue) -> {
+			if(!state.getLogLoadedProperty().get() || modelService.isCollecting())
+				return;
+			Platform.runLater(() -> {
+				refreshCharts();
+				// loading finished, the scroll range is known now
+				if(newvalue.floatValue() < 0)
+					updateScroll();
+			});
 		});
 
 		state.getRecordingProperty().addListener((observable, oldvalue, newvalue) -> {
@@ -211,6 +217,14 @@ public class ChartControlWidget extends WidgetPane  {
 			scroll.setDisable(false);
 	}
 
+	private void updateScroll() {
+		if(modelService.getModelList().size() < totalTime_sec * 1000 /  modelService.getCollectorInterval_ms() || modelService.isCollecting())
+			scroll.setDisable(true);
+		else
+			scroll.setDisable(false);
+		scroll.setValue(1);
+	}
+
 	private void buildKeyfigureModelSelection() {
 
 		final AnalysisDataModelMetaData meta = AnalysisDataModelMetaData.getInstance();
@@ -0,0 +1,189 @@
+/****************************************************************************
+ *
+ *   Copyright (c) 2016 Eike Mansfeld ecm@gmx.de. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS
+ * OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED
+ * AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ ****************************************************************************/
+
+
+package com.comino.flight.widgets.charts.line;
+
+import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.flight.model.store.SummaryPyramid;
+import com.comino.flight.widgets.fx.controls.ICanvasRenderer;
+
+import javafx.scene.Node;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.XYChart;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Path;
+
+/*
+ * Renders keyfigure columns over the sample index range [x0,x1]. If there are
+ * more samples than pixels, each pixel column shows the min/max envelope (or the
+ * average) of its samples, taken from the summary pyramid of the store. The cost
+ * per frame depends on the chart width only.
+ */
+
+public class ColumnLineRenderer implements ICanvasRenderer {
+
+	private final AnalysisModelService dataService;
+
+	private final KeyFigureMetaData[]             types;
+	private final XYChart.Series<Number,Number>[] series;
+
+	private final SummaryPyramid.Stats stats = new SummaryPyramid.Stats();
+
+	private int     x0 = 0;
+	private int     x1 = 0;
+	private boolean average = false;
+
+	@SuppressWarnings({"unchecked","rawtypes"})
+	public ColumnLineRenderer(AnalysisModelService dataService, int count) {
+		this.dataService = dataService;
+		this.types  = new KeyFigureMetaData[count];
+		this.series = new XYChart.Series[count];
+	}
+
+	/*
+	 * Assigns a keyfigure to a trace; the stroke is taken from the series styling.
+	 */
+	public void setKeyFigure(int trace, KeyFigureMetaData kf, XYChart.Series<Number,Number> s) {
+		types[trace] = kf;
+		series[trace] = s;
+	}
+
+	public void setRange(int x0, int x1, boolean average) {
+		this.x0 = x0;
+		this.x1 = x1;
+		this.average = average;
+	}
+
+	@Override
+	public boolean getBounds(double[] bounds) {
+		AnalysisDataModelStore list = dataService.getModelList();
+		float interval_s = dataService.getCollectorInterval_ms() / 1000f;
+		boolean valid = false;
+
+		bounds[0] = x0 * interval_s;
+		bounds[1] = x1 * interval_s;
+		for(KeyFigureMetaData kf : types) {
+			if(kf==null || kf.hash==0 || !list.getStatistics(kf, x0, x1+1, stats))
+				continue;
+			if(!valid || stats.min < bounds[2]) bounds[2] = stats.min;
+			if(!valid || stats.max > bounds[3]) bounds[3] = stats.max;
+			valid = true;
+		}
+		return valid;
+	}
+
+	@Override
+	public void render(GraphicsContext gc, double sx, double ox, double sy, double oy, double width, double height) {
+		AnalysisDataModelStore list = dataService.getModelList();
+		double dx = sx * dataService.getCollectorInterval_ms() / 1000f;
+
+		int from = Math.max(0, x0); int to = Math.min(x1 + 1, list.size());
+		if(to - from < 2)
+			return;
+
+		double px0 = ox + from * dx;
+		int pixels = (int)((to - from) * dx);
+
+		gc.setLineWidth(1);
+		for(int t=0;t<types.length;t++) {
+			if(types[t]==null || types[t].hash==0)
+				continue;
+			if(!list.hasData(types[t]))
+				continue;
+
+			gc.setStroke(getStroke(series[t]));
+			gc.beginPath();
+			if(to - from <= 2 * pixels)
+				traceSamples(gc, list, types[t], from, to, ox, dx, oy, sy);
+			else
+				traceEnvelope(gc, list, types[t], from, to, pixels, px0, oy, sy);
+			gc.stroke();
+		}
+	}
+
+	private void traceSamples(GraphicsContext gc, AnalysisDataModelStore list, KeyFigureMetaData kf,
+			int from, int to, double ox, double dx, double oy, double sy) {
+		boolean pen = false; float v;
+		for(int i=from;i<to;i++) {
+			v = list.getValue(i, kf);
+			if(Float.isNaN(v)) {
+				pen = false;
+				continue;
+			}
+			double x = ox + i * dx; double y = oy + v * sy;
+			if(pen)
+				gc.lineTo(x, y);
+			else
+				gc.moveTo(x, y);
+			pen = true;
+		}
+	}
+
+	private void traceEnvelope(GraphicsContext gc, AnalysisDataModelStore list, KeyFigureMetaData kf,
+			int from, int to, int pixels, double px0, double oy, double sy) {
+		boolean pen = false; int a = from;
+		for(int p=0;p<pixels;p++) {
+			int b = from + (int)((long)(p + 1) * (to - from) / pixels);
+			if(!list.getStatistics(kf, a, b, stats)) {
+				pen = false; a = b;
+				continue;
+			}
+			double x = px0 + p;
+			if(average) {
+				double y = oy + stats.getAvg() * sy;
+				if(pen)
+					gc.lineTo(x, y);
+				else
+					gc.moveTo(x, y);
+			} else {
+				if(pen)
+					gc.lineTo(x, oy + stats.max * sy);
+				else
+					gc.moveTo(x, oy + stats.max * sy);
+				gc.lineTo(x, oy + stats.min * sy);
+			}
+			pen = true; a = b;
+		}
+	}
+
+	private Paint getStroke(XYChart.Series<Number,Number> s) {
+		Node node = s!=null ? s.getNode() : null;
+		if(node instanceof Path && ((Path)node).getStroke()!=null)
+			return ((Path)node).getStroke();
+		return Color.LIGHTGRAY;
+	}
+}
@@ -42,17 +42,19 @@ import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 
 import com.comino.flight.FXMLLoadHelper;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.model.service.ICollectorRecordingListener;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.flight.model.store.SummaryPyramid;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.flight.widgets.charts.control.IChartControl;
 import com.comino.flight.widgets.fx.controls.MovingAxis;
 import com.comino.flight.widgets.fx.controls.SectionLineChart;
 import com.comino.mav.control.IMAVController;
+import com.comino.msp.model.segment.LogMessage;
 import com.emxsys.chart.extension.XYAnnotations.Layer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -164,9 +166,11 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	private DashBoardAnnotation dashboard2 = null;
 	private DashBoardAnnotation dashboard3 = null;
 
+	private SummaryPyramid.Stats dashboard_stats = new SummaryPyramid.Stats();
+
 	private List<IChartSyncControl> syncCharts = null;
 
-	private XYDataPool pool = null;
+	private ColumnLineRenderer renderer = null;
 
 	private Preferences prefs = MAVPreferences.getInstance();
 
@@ -185,7 +189,6 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		FXMLLoadHelper.load(this, "LineChartWidget.fxml");
 
 		this.state = StateProperties.getInstance();
-		this.pool  = new XYDataPool();
 
 		dataService.registerListener(this);
 	}
@@ -195,10 +198,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	public void update(long now) {
 		if(!isRunning || isDisabled() || !isVisible() )
 			return;
-		Platform.runLater(() -> {
-			updateGraph(refreshRequest);
-		});
-
+		updateGraph(refreshRequest);
 	}
 
 	@FXML
@@ -215,6 +215,9 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 		series3 = new XYChart.Series<Number,Number>();
 		linechart.getData().add(series3);
 
+		renderer = new ColumnLineRenderer(dataService, 3);
+		linechart.setRenderer(renderer);
+
 		annotations.setSelected(true);
 		annotations.selectedProperty().addListener((observable, oldvalue, newvalue) -> {
 			Platform.runLater(() -> {
@@ -627,7 +630,7 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 	}
 
 	private  void updateGraph(boolean refresh) {
-		float dt_sec = 0; AnalysisDataModel m =null; boolean set_bounds = false; float v1 ; float v2; float v3;
+		float dt_sec = 0; LogMessage msg = null; boolean set_bounds = false;
 
 		if(isDisabled()) {
 			return;
@@ -640,14 +643,14 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 			}
 
 			refreshRequest = false;
-			pool.invalidateAll();
-			series1.getData().clear();
-			series2.getData().clear();
-			series3.getData().clear();
 			linechart.getAnnotations().clearAnnotations(Layer.FOREGROUND);
 			last_annotation_pos = 0;
 			yoffset = 0;
 
+			renderer.setKeyFigure(0, type1, series1);
+			renderer.setKeyFigure(1, type2, series2);
+			renderer.setKeyFigure(2, type3, series3);
+
 			if(dash.isSelected() && dataService.getModelList().size()> 0) {
 
 				if(type1.hash!=0)
@@ -684,58 +687,21 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 
 			while(current_x_pt<max_x ) {
 
-				m = dataService.getModelList().get(current_x_pt);
+				msg = dataService.getModelList().getMessage(current_x_pt);
 				dt_sec = current_x_pt *  dataService.getCollectorInterval_ms() / 1000f;
 
-				if(m.msg!=null && current_x_pt > 0 && m.msg!=null && m.msg.msg!=null
+				if(msg!=null && current_x_pt > 0 && msg.msg!=null
 						&& ( type1.hash!=0 || type2.hash!=0 || type3.hash!=0)
 						&& display_annotations) {
 					if((current_x_pt - last_annotation_pos) > 150 || yoffset > 12)
 						yoffset=0;
 
-					linechart.getAnnotations().add(new LineMessageAnnotation(this,dt_sec,yoffset++, m.msg,
+					linechart.getAnnotations().add(new LineMessageAnnotation(this,dt_sec,yoffset++, msg,
 							(resolution_ms<300) && annotations.isSelected()),
 							Layer.FOREGROUND);
 					last_annotation_pos = current_x_pt;
 				}
 
-				if(((current_x_pt * dataService.getCollectorInterval_ms()) % resolution_ms) == 0 && current_x_pt > 0) {
-					if(current_x_pt > current_x1_pt) {
-						if(series1.getData().size()>0 && type1.hash!=0) {
-							pool.invalidate(series1.getData().get(0));
-							series1.getData().remove(0);
-						}
-
-						if(series2.getData().size()>0 && type2.hash!=0) {
-							pool.invalidate(series2.getData().get(0));
-							series2.getData().remove(0);
-						}
-
-						if(series3.getData().size()>0 && type3.hash!=0) {
-							pool.invalidate(series3.getData().get(0));
-							series3.getData().remove(0);
-						}
-					}
-
-					if(type1.hash!=0)  {
-						v1 = determineValueFromRange(current_x_pt,resolution_ms/dataService.getCollectorInterval_ms(),type1,averaging.isSelected());
-						if(!Float.isNaN(v1))
-							series1.getData().add(pool.checkOut(dt_sec,v1));
-
-					}
-					if(type2.hash!=0)  {
-						v2 = determineValueFromRange(current_x_pt,resolution_ms/dataService.getCollectorInterval_ms(),type2,averaging.isSelected());
-						if(!Float.isNaN(v2))
-							series2.getData().add(pool.checkOut(dt_sec,v2));
-					}
-					if(type3.hash!=0)  {
-						v3 = determineValueFromRange(current_x_pt,resolution_ms/dataService.getCollectorInterval_ms(),type3,averaging.isSelected());
-						if(!Float.isNaN(v3))
-							series3.getData().add(pool.checkOut(dt_sec,v3));
-					}
-				}
-
-
 				if(current_x_pt > current_x1_pt) {
 					set_bounds = true;
 					if(!isPaused) {
@@ -751,34 +717,23 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 				set_bounds=false;
 			}
 		}
+
+		renderer.setRange(current_x0_pt, current_x1_pt, averaging.isSelected());
+		linechart.refresh();
 	}
 
 	private void setDashboardData(DashBoardAnnotation d, KeyFigureMetaData kf) {
-		int count=0; float val=0;
-		float _min = Float.NaN; float _max = Float.NaN;
-		float _avg = 0; float mean = 0; float std=0;
 
 		if(kf.hash==0)
 			return;
 
 		d.setKeyFigure(kf);
-		for(int i = current_x0_pt; i < current_x1_pt && i< dataService.getModelList().size();i++) {
-			val = dataService.getModelList().get(i).getValue(kf);
-			if(val<_min || Float.isNaN(_min)) _min = val;
-			if(val>_max || Float.isNaN(_max)) _max = val;
-			_avg = _avg + val; count++;
-		}
-
-		d.setMinMax(_min, _max);
-		if(count>0) {
-			mean = _avg / count; std = 0;
-			for(int i = current_x0_pt; i < current_x1_pt && i< dataService.getModelList().size();i++) {
-				val = dataService.getModelList().get(i).getValue(kf);
-				std = std + (val - mean) * (val - mean);
-			}
-			std = (float)Math.sqrt(std / count);
-			d.setAvg(mean, std);
+		if(!dataService.getModelList().getStatistics(kf, current_x0_pt, current_x1_pt, dashboard_stats)) {
+			d.setMinMax(Float.NaN, Float.NaN);
+			return;
 		}
+		d.setMinMax(dashboard_stats.min, dashboard_stats.max);
+		d.setAvg(dashboard_stats.getAvg(), dashboard_stats.getStdDev());
 	}
 
 	private  void setXAxisBounds(int lower_pt, int upper_pt) {
@@ -838,39 +793,4 @@ public class LineChartWidget extends BorderPane implements IChartControl, IColle
 
 	}
 
-	/*
-	 * Determines spikes or average, if not all datapoints are reported.
-	 */
-	private float determineValueFromRange(int current_x, int length, KeyFigureMetaData m, boolean average) {
-
-		float v_current_x = dataService.getModelList().get(current_x).getValue(m);
-
-		if(dataService.getModelList().size() < length || Float.isNaN(v_current_x))
-			return 0;
-
-		if(length==1)
-			return v_current_x;
-
-		float a = 0; float v;
-
-		if(average) {
-			a = v_current_x;
-			for(int i=current_x-length+1;i<current_x;i++)
-				a = a + dataService.getModelList().get(i).getValue(m);
-			return a / length;
-
-		} else {
-
-			int peak_index=current_x;
-			float max = Math.abs(v_current_x);
-
-			for(int i=current_x-length+1;i<current_x;i++) {
-				v = Math.abs(dataService.getModelList().get(i).getValue(m));
-				if(v>max && v != Float.NaN)
-					max = v; peak_index = i;
-			}
-			return dataService.getModelList().get(peak_index).getValue(m);
-		}
-	}
-
 }
@@ -34,55 +34,141 @@
 
 package com.comino.flight.widgets.charts.line;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Arrays;
 
 import javafx.scene.chart.XYChart;
 
+/*
+ * Pool of chart data points, confined to the FX thread. Points are checked out
+ * in the order they are appended to the series and usually returned oldest
+ * first, so live points are kept in a ring and free points on a stack.
+ */
+
 public class XYDataPool {
 
-	private static final int INIT_CAPACITY = 500;
+	private static final int INIT_CAPACITY = 512;
+
+	private XYChart.Data<Number,Number>[] live;
+	private XYChart.Data<Number,Number>[] free;
 
-	private Hashtable<XYChart.Data<Number,Number>,Boolean> locked, unlocked;
+	private int head = 0;
+	private int live_count = 0;
+	private int free_count = 0;
+
+	private long hits   = 0;
+	private long misses = 0;
 
 	public XYDataPool() {
-		locked   = new Hashtable<XYChart.Data<Number,Number>,Boolean>(0);
-		unlocked = new Hashtable<XYChart.Data<Number,Number>,Boolean>(INIT_CAPACITY);
+		this(INIT_CAPACITY);
 	}
 
-	public synchronized XYChart.Data<Number,Number> checkOut(float x, float y)
-	{
+	public XYDataPool(int capacity) {
+		live = newArray(Math.max(16, capacity));
+		free = newArray(live.length);
+	}
+
+	/*
+	 * Adjusts the capacity to the number of visible points.
+	 */
+	public void setCapacity(int capacity) {
+		capacity = Math.max(16, Math.max(capacity, live_count));
+		if(capacity == live.length)
+			return;
+		resize(capacity);
+		if(free_count > capacity) {
+			Arrays.fill(free, capacity, free_count, null);
+			free_count = capacity;
+		}
+		free = Arrays.copyOf(free, capacity);
+	}
+
+	public XYChart.Data<Number,Number> checkOut(float x, float y) {
 		XYChart.Data<Number,Number> o;
-		if( unlocked.size() > 0 )
-		{
-			Enumeration<XYChart.Data<Number,Number>> e = unlocked.keys();
-			o = e.nextElement(); 
+		if(free_count > 0) {
+			o = free[--free_count];
+			free[free_count] = null;
 			o.setXValue(x);
 			o.setYValue(y);
-			unlocked.remove(o);
-			locked.put(o, true);
-			return(o);
+			hits++;
+		} else {
+			o = new XYChart.Data<Number,Number>(x,y);
+			misses++;
+		}
+		if(live_count == live.length)
+			resize(live.length * 2);
+		live[(head + live_count++) % live.length] = o;
+		return o;
+	}
+
+	public void invalidate(XYChart.Data<Number,Number> o) {
+		if(live_count == 0)
+			return;
+		if(live[head] == o) {
+			live[head] = null;
+			head = (head + 1) % live.length;
+			live_count--;
+			release(o);
+			return;
+		}
+		for(int i=1;i<live_count;i++) {
+			if(live[(head + i) % live.length] == o) {
+				for(int j=i;j<live_count-1;j++)
+					live[(head + j) % live.length] = live[(head + j + 1) % live.length];
+				live[(head + --live_count) % live.length] = null;
+				release(o);
+				return;
+			}
 		}
-		o = new XYChart.Data<Number,Number>(x,y);
-		locked.put( o, true );
-		return( o );
 	}
 
-	public synchronized void invalidate(XYChart.Data<Number,Number> o) {
-		if(locked.size()>0) {
-			locked.remove(o);
-			unlocked.put(o, true);
+	public void invalidateAll() {
+		for(int i=0;i<live_count;i++) {
+			int k = (head + i) % live.length;
+			release(live[k]);
+			live[k] = null;
+		}
+		head = 0; live_count = 0;
+	}
+
+	public int getLiveSize() {
+		return live_count;
+	}
+
+	public int getFreeSize() {
+		return free_count;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void resetCounters() {
+		hits = 0; misses = 0;
+	}
+
+	private void release(XYChart.Data<Number,Number> o) {
+		if(free_count == free.length) {
+			if(free.length >= live.length)
+				return;
+			free = Arrays.copyOf(free, live.length);
 		}
+		free[free_count++] = o;
 	}
 
-	public synchronized void invalidateAll() {
-		unlocked.clear();
-		unlocked.putAll(locked);
-		locked.clear();
+	private void resize(int capacity) {
+		XYChart.Data<Number,Number>[] l = newArray(capacity);
+		for(int i=0;i<live_count;i++)
+			l[i] = live[(head + i) % live.length];
+		live = l; head = 0;
 	}
 
-	public int getLockedSize() {
-		return locked.size();
+	@SuppressWarnings({"unchecked","rawtypes"})
+	private static XYChart.Data<Number,Number>[] newArray(int capacity) {
+		return new XYChart.Data[capacity];
 	}
 
 }
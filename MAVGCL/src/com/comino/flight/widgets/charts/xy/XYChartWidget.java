@@ -41,11 +41,11 @@ import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 
 import com.comino.flight.FXMLLoadHelper;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.AnalysisDataModelMetaData;
 import com.comino.flight.model.KeyFigureMetaData;
 import com.comino.flight.model.service.AnalysisModelService;
 import com.comino.flight.model.service.ICollectorRecordingListener;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.prefs.MAVPreferences;
 import com.comino.flight.widgets.charts.control.IChartControl;
@@ -227,11 +227,8 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 
 	@Override
 	public void update(long now) {
-		if(isVisible() && !isDisabled() && isRunning) {
-			Platform.runLater(() -> {
-				updateGraph(refreshRequest);
-			});
-		}
+		if(isVisible() && !isDisabled() && isRunning)
+			updateGraph(refreshRequest);
 	}
 
 	@FXML
@@ -489,6 +486,8 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 		else
 			resolution_ms = dataService.getCollectorInterval_ms();
 
+		pool.setCapacity(2 * (frame * 1000 / resolution_ms + 1));
+
 		current_x0_pt = dataService.calculateX0Index(1);
 		current_x_pt  = dataService.calculateX0Index(1);
 		scroll.setValue(1);
@@ -510,8 +509,6 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 
 	private void updateGraph(boolean refresh) {
 
-		AnalysisDataModel m =null;
-
 		if(disabledProperty().get())
 			return;
 
@@ -519,7 +516,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 			rotation_rad = -control.getCurrentModel().attitude.y;
 		}
 
-		List<AnalysisDataModel> mList = dataService.getModelList();
+		AnalysisDataModelStore mList = dataService.getModelList();
 
 		if(refresh) {
 			if(mList.size()==0 && dataService.isCollecting()) {
@@ -534,8 +531,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 
 			s1.setKeyFigures(type1_x, type1_y);
 			if(type1_x.hash!=0 && type1_y.hash!=0 && annotation.isSelected() && mList.size()>0)  {
-				m = mList.get(0);
-				rotateRad(p1,m.getValue(type1_x), m.getValue(type1_y),
+				rotateRad(p1,mList.getValue(0,type1_x), mList.getValue(0,type1_y),
 						rotation_rad);
 
 				linechart.getAnnotations().add(dashboard1, Layer.FOREGROUND);
@@ -547,8 +543,7 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 
 			s2.setKeyFigures(type2_x, type2_y);
 			if(type2_x.hash!=0 && type2_y.hash!=0 && annotation.isSelected() && mList.size()>0)  {
-				m = mList.get(0);
-				rotateRad(p2,m.getValue(type2_x), m.getValue(type2_y),
+				rotateRad(p2,mList.getValue(0,type2_x), mList.getValue(0,type2_y),
 						rotation_rad);
 				linechart.getAnnotations().add(dashboard2, Layer.FOREGROUND);
 				linechart.getAnnotations().add(endPosition2, Layer.FOREGROUND);
@@ -621,8 +616,6 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 				if(((current_x_pt * dataService.getCollectorInterval_ms()) % resolution_ms) == 0) {
 
 
-					m = mList.get(current_x_pt);
-
 					if(current_x_pt > current_x1_pt) {
 
 						current_x0_pt += resolution_ms / dataService.getCollectorInterval_ms();
@@ -639,13 +632,13 @@ public class XYChartWidget extends BorderPane implements IChartControl, ICollect
 					}
 
 					if(type1_x.hash!=0 && type1_y.hash!=0) {
-						rotateRad(p1,m.getValue(type1_x), m.getValue(type1_y),
+						rotateRad(p1,mList.getValue(current_x_pt,type1_x), mList.getValue(current_x_pt,type1_y),
 								rotation_rad);
 						series1.getData().add(pool.checkOut(p1[0],p1[1]));
 					}
 
 					if(type2_x.hash!=0 && type2_y.hash!=0) {
-						rotateRad(p2,m.getValue(type2_x), m.getValue(type2_y),
+						rotateRad(p2,mList.getValue(current_x_pt,type2_x), mList.getValue(current_x_pt,type2_y),
 								rotation_rad);
 						series2.getData().add(pool.checkOut(p2[0],p2[1]));
 					}
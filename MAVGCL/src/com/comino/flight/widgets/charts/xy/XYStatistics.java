@@ -1,9 +1,8 @@
 package com.comino.flight.widgets.charts.xy;
 
-import java.util.List;
-
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.KeyFigureMetaData;
+import com.comino.flight.model.store.AnalysisDataModelStore;
+import com.comino.flight.model.store.SummaryPyramid;
 
 public class XYStatistics {
 
@@ -21,46 +20,38 @@ public class XYStatistics {
 	private KeyFigureMetaData fy;
 	private KeyFigureMetaData fx;
 
+	private SummaryPyramid.Stats sx = new SummaryPyramid.Stats();
+	private SummaryPyramid.Stats sy = new SummaryPyramid.Stats();
+
 
 	public void setKeyFigures(KeyFigureMetaData fx, KeyFigureMetaData fy) {
 		this.fx = fx; this.fy=fy;
 	}
 
-	public void getStatistics(int x0, int x1, List<AnalysisDataModel> list) {
-		float vx=0; float vy=0; int i=0; float radius=0;
+	public void getStatistics(int x0, int x1, AnalysisDataModelStore list) {
+
+		int size = list.size();
+
+		x1 =  size < x1 ? size-1 : x1-1;
 
-		x1 =  list.size() < x1 ? list.size()-1 : x1-1;
+		if(size < 10 || fx.hash==0 || fy.hash==0)
+			return;
 
-		if(list.size() < 10 || fx.hash==0 || fy.hash==0)
+		if(!list.getStatistics(fx, x0, x1, sx) || !list.getStatistics(fy, x0, x1, sy))
 			return;
 
-		for(i = x0; i< x1;i++) {
-	        vx += list.get(i).getValue(fx);
-	        vy += list.get(i).getValue(fy);
-		}
-		center_x = vx / (i - x0);
-		center_y = vy / (i - x0);
-
-		vx = 0; vy = 0;
-		for(i = x0; i< x1 ;i++) {
-	        vx += (list.get(i).getValue(fx) - center_x) * (list.get(i).getValue(fx) - center_x);
-	        vy += (list.get(i).getValue(fy) - center_y) * (list.get(i).getValue(fy) - center_y);
-	        if(Math.abs(list.get(i).getValue(fx)-center_x) > radius)
-	        	radius = Math.abs(list.get(i).getValue(fx)-center_x);
-	        if(Math.abs(list.get(i).getValue(fy)-center_y) > radius)
-	        	radius = Math.abs(list.get(i).getValue(fy)-center_y);
-
-		}
-
-        this.radius = radius;
-		stddev_x =(float)Math.sqrt( vx / (i - x0));
-		stddev_y =(float)Math.sqrt( vy / (i - x0));
-
-		distance =  (float)Math.sqrt(
-				(list.get(0).getValue(fx) - list.get(x1).getValue(fx)) *
-				(list.get(0).getValue(fx) - list.get(x1).getValue(fx)) +
-				(list.get(0).getValue(fy) - list.get(x1).getValue(fy)) *
-				(list.get(0).getValue(fy) - list.get(x1).getValue(fy)));
+		center_x = sx.getAvg();
+		center_y = sy.getAvg();
+
+		stddev_x = sx.getStdDev();
+		stddev_y = sy.getStdDev();
+
+		radius = Math.max(Math.max(sx.max - center_x, center_x - sx.min),
+				          Math.max(sy.max - center_y, center_y - sy.min));
+
+		float dx = list.getValue(0, fx) - list.getValue(x1, fx);
+		float dy = list.getValue(0, fy) - list.getValue(x1, fy);
+		distance =  (float)Math.sqrt(dx * dx + dy * dy);
 
 		stddev_xy = (float)Math.sqrt(stddev_x*stddev_x+stddev_y*stddev_y);
 	}
@@ -33,10 +33,14 @@
 
 package com.comino.flight.widgets.fx.controls;
 
+import java.util.Arrays;
+
 import com.emxsys.chart.extension.XYAnnotations;
 
 import javafx.beans.NamedArg;
 import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.chart.Axis;
 import javafx.scene.chart.LineChart;
 
@@ -44,6 +48,10 @@ public class SectionLineChart<X,Y> extends LineChart<X, Y> {
 
 	private XYAnnotations annotations;
 
+	private ICanvasRenderer renderer = null;
+	private Canvas          canvas   = null;
+	private final double[]  bounds   = new double[4];
+
 	public SectionLineChart(@NamedArg("xAxis")Axis<X> xAxis, @NamedArg("yAxis")Axis<Y> yAxis) {
 		super(xAxis, yAxis);
 		annotations = new XYAnnotations(this, getChartChildren());
@@ -52,10 +60,51 @@ public class SectionLineChart<X,Y> extends LineChart<X, Y> {
 	@Override
     protected void layoutPlotChildren() {
         super.layoutPlotChildren();
+        if(renderer!=null)
+        	renderCanvas();
         if(annotations!=null)
           this.annotations.layoutAnnotations();
     }
 
+	/*
+	 * Draws the data by the renderer onto a canvas below the annotations instead
+	 * of using series data nodes. Series are then only used for the legend.
+	 */
+	public void setRenderer(ICanvasRenderer renderer) {
+		this.renderer = renderer;
+		if(canvas==null) {
+			canvas = new Canvas();
+			canvas.setManaged(false);
+			getPlotChildren().add(0, canvas);
+		}
+		refresh();
+	}
+
+	/*
+	 * Redraws the canvas, auto ranging axes are adjusted to the renderer bounds.
+	 */
+	public void refresh() {
+		if(renderer==null)
+			return;
+		updateAxisRange();
+		requestChartLayout();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void updateAxisRange() {
+		if(renderer==null) {
+			super.updateAxisRange();
+			return;
+		}
+		if(!renderer.getBounds(bounds))
+			return;
+		if(getXAxis().isAutoRanging())
+			((Axis<Number>)getXAxis()).invalidateRange(Arrays.<Number>asList(bounds[0], bounds[1]));
+		if(getYAxis().isAutoRanging())
+			((Axis<Number>)getYAxis()).invalidateRange(Arrays.<Number>asList(bounds[2], bounds[3]));
+	}
+
 	public XYAnnotations getAnnotations() {
         return this.annotations;
     }
@@ -77,4 +126,22 @@ public class SectionLineChart<X,Y> extends LineChart<X, Y> {
         }
         return (Group)  plotArea.getChildren().get(plotContentIndex);
 	}
+
+	private void renderCanvas() {
+		Axis<X> xa = getXAxis(); Axis<Y> ya = getYAxis();
+		double width = xa.getWidth(); double height = ya.getHeight();
+
+		if(canvas.getWidth()!=width || canvas.getHeight()!=height) {
+			canvas.setWidth(width);
+			canvas.setHeight(height);
+		}
+
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+		double ox = xa.getDisplayPosition(xa.toRealValue(0));
+		double oy = ya.getDisplayPosition(ya.toRealValue(0));
+		renderer.render(gc, xa.getDisplayPosition(xa.toRealValue(1)) - ox, ox,
+				ya.getDisplayPosition(ya.toRealValue(1)) - oy, oy, width, height);
+	}
 }
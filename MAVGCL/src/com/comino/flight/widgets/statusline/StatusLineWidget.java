@@ -34,11 +34,10 @@
 package com.comino.flight.widgets.statusline;
 
 import java.io.IOException;
-import java.util.List;
 
 import com.comino.flight.log.FileHandler;
-import com.comino.flight.model.AnalysisDataModel;
 import com.comino.flight.model.service.AnalysisModelService;
+import com.comino.flight.model.store.AnalysisDataModelStore;
 import com.comino.flight.observables.StateProperties;
 import com.comino.flight.widgets.charts.control.ChartControlWidget;
 import com.comino.flight.widgets.charts.control.IChartControl;
@@ -75,6 +74,9 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPStatusC
 	@FXML
 	private Badge time;
 
+	@FXML
+	private Badge tick;
+
 	@FXML
 	private Badge mode;
 
@@ -108,7 +110,7 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPStatusC
 		}
 
 		task = new AnimationTimer() {
-			List<AnalysisDataModel> list = null;
+			AnalysisDataModelStore list = null;
 
 			@Override public void handle(long now) {
 				if((System.currentTimeMillis()-tms)>500) {
@@ -137,8 +139,8 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPStatusC
 						int current_x1_pt = collector.calculateX1Index(scroll.floatValue());
 						time.setText(
 								String.format("TimeFrame: [ %1$tM:%1$tS - %2$tM:%2$tS ]",
-										list.get(current_x0_pt).tms/1000,
-										list.get(current_x1_pt).tms/1000)
+										list.getTms(current_x0_pt)/1000,
+										list.getTms(current_x1_pt)/1000)
 								);
 						time.setBackgroundColor(Color.DARKCYAN);
 					} else {
@@ -146,6 +148,19 @@ public class StatusLineWidget extends Pane implements IChartControl, IMSPStatusC
 						time.setBackgroundColor(Color.GRAY);
 					}
 
+					if(collector.isCollecting() && collector.getTickLatency().getCount() > 0) {
+						float p99 = collector.getTickLatency().getPercentile(99) / 1000f;
+						tick.setText(String.format("Tick p99: %.1fms", p99));
+						if(collector.getSkippedTicks() > 0 || p99 > collector.getCollectorInterval_ms() / 2f)
+							tick.setBackgroundColor(Color.DARKORANGE);
+						else
+							tick.setBackgroundColor(Color.DARKCYAN);
+						tick.setMode(Badge.MODE_ON);
+					} else {
+						tick.setText("Tick p99: -");
+						tick.setMode(Badge.MODE_OFF);
+					}
+
 					if(filename.isEmpty()) {
 						if(control.isConnected()) {
 							time.setMode(Badge.MODE_ON);
@@ -39,6 +39,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import me.drton.jmavlib.log.FormatErrorException;
 import me.drton.jmavlib.log.ulog.FieldFormat;
@@ -104,6 +105,21 @@ public class UlogMAVLinkParser {
 		}
 	}
 
+	/*
+	 * Adds bytes of a continuous stream (e.g. a log file), as much as fits into the buffer.
+	 * Returns the number of bytes taken.
+	 */
+	public int addToBuffer(ByteBuffer data) {
+		int n = Math.min(data.remaining(), buffer.remaining());
+		for (int i = 0; i < n; i++)
+			buffer.put(data.get());
+		return n;
+	}
+
+	public int getBufferedBytes() {
+		return buffer.position();
+	}
+
 	public Map<String, String> getFieldList() {
 		return fieldsList;
 	}
@@ -154,81 +170,112 @@ public class UlogMAVLinkParser {
 	}
 
 	public void parseHeader()   {
-		Object msg = null;  long lastTime = -1;
+		Object msg = null;
 		buffer.flip();
 		while ((msg = readMessage()) != null) {
+			applyHeaderMessage(msg);
+			timeStart=-1;
+		}
 
-			if (msg instanceof MessageFormat) {
-				MessageFormat msgFormat = (MessageFormat) msg;
-				messageFormats.put(msgFormat.name, msgFormat);
+		buffer.compact();
 
-			} else if (msg instanceof MessageAddLogged) {
-				//from now on we cannot have any new MessageFormat's, so we
-				//can parse the nested types
-				if (!nestedParsingDone) {
-					for (MessageFormat m : messageFormats.values()) {
-						m.parseNestedTypes(messageFormats);
-					}
-					//now do a 2. pass to remove the last padding field
-					for (MessageFormat m : messageFormats.values()) {
-						m.removeLastPaddingField();
-					}
-					nestedParsingDone = true;
-				}
-				MessageAddLogged msgAddLogged = (MessageAddLogged) msg;
-				MessageFormat msgFormat = messageFormats.get(msgAddLogged.name);
-				if(msgFormat == null) {
-					System.err.println("Format of subscribed message not found: " + msgAddLogged.name);
-					continue;
+	}
+
+	/*
+	 * Parses a continuous ULog stream (header already checked): definitions are applied
+	 * and DATA messages update the data buffer. Each complete message is passed to the
+	 * consumer; incomplete ones stay in the buffer until more bytes are added.
+	 */
+	public void parseStream(Consumer<Object> consumer) {
+		buffer.flip();
+		while (buffer.remaining() >= 3) {
+			int pos = buffer.position();
+			Object msg = readMessage();
+			if (msg == null) {
+				if (buffer.position() == pos)
+					break;
+				continue;
+			}
+			if (msg instanceof MessageData) {
+				if (timeStart < 0)
+					timeStart = ((MessageData)msg).timestamp;
+				applyMsg(data, (MessageData) msg);
+			} else
+				applyHeaderMessage(msg);
+			consumer.accept(msg);
+		}
+		buffer.compact();
+	}
+
+	private void applyHeaderMessage(Object msg) {
+		long lastTime = -1;
+
+		if (msg instanceof MessageFormat) {
+			MessageFormat msgFormat = (MessageFormat) msg;
+			messageFormats.put(msgFormat.name, msgFormat);
+
+		} else if (msg instanceof MessageAddLogged) {
+			//from now on we cannot have any new MessageFormat's, so we
+			//can parse the nested types
+			if (!nestedParsingDone) {
+				for (MessageFormat m : messageFormats.values()) {
+					m.parseNestedTypes(messageFormats);
 				}
-				Subscription subscription = new Subscription(msgFormat, msgAddLogged.multiID);
-				if (msgAddLogged.msgID < messageSubscriptions.size()) {
-					messageSubscriptions.set(msgAddLogged.msgID, subscription);
-				} else {
-					while (msgAddLogged.msgID > messageSubscriptions.size())
-						messageSubscriptions.add(null);
-					messageSubscriptions.add(subscription);
+				//now do a 2. pass to remove the last padding field
+				for (MessageFormat m : messageFormats.values()) {
+					m.removeLastPaddingField();
 				}
-				if (msgAddLogged.multiID > msgFormat.maxMultiID)
-					msgFormat.maxMultiID = msgAddLogged.multiID;
-
-
-			} else if (msg instanceof MessageParameter) {
-				MessageParameter msgParam = (MessageParameter) msg;
-				lastTime = System.currentTimeMillis();
-				if (parameters.containsKey(msgParam.getKey())) {
-					System.out.println("Update to parameter: " + msgParam.getKey() + " value: " + msgParam.value + " at t = " + lastTime);
-					// maintain a record of parameters which change during flight
-					if (parameterUpdates.containsKey(msgParam.getKey())) {
-						parameterUpdates.get(msgParam.getKey()).add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
-					} else {
-						List<ParamUpdate> updateList = new ArrayList<ParamUpdate>();
-						updateList.add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
-						parameterUpdates.put(msgParam.getKey(), updateList);
-					}
+				nestedParsingDone = true;
+			}
+			MessageAddLogged msgAddLogged = (MessageAddLogged) msg;
+			MessageFormat msgFormat = messageFormats.get(msgAddLogged.name);
+			if(msgFormat == null) {
+				System.err.println("Format of subscribed message not found: " + msgAddLogged.name);
+				return;
+			}
+			Subscription subscription = new Subscription(msgFormat, msgAddLogged.multiID);
+			if (msgAddLogged.msgID < messageSubscriptions.size()) {
+				messageSubscriptions.set(msgAddLogged.msgID, subscription);
+			} else {
+				while (msgAddLogged.msgID > messageSubscriptions.size())
+					messageSubscriptions.add(null);
+				messageSubscriptions.add(subscription);
+			}
+			if (msgAddLogged.multiID > msgFormat.maxMultiID)
+				msgFormat.maxMultiID = msgAddLogged.multiID;
+
+
+		} else if (msg instanceof MessageParameter) {
+			MessageParameter msgParam = (MessageParameter) msg;
+			lastTime = System.currentTimeMillis();
+			if (parameters.containsKey(msgParam.getKey())) {
+				System.out.println("Update to parameter: " + msgParam.getKey() + " value: " + msgParam.value + " at t = " + lastTime);
+				// maintain a record of parameters which change during flight
+				if (parameterUpdates.containsKey(msgParam.getKey())) {
+					parameterUpdates.get(msgParam.getKey()).add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
 				} else {
-					// add parameter to the parameters Map
-					parameters.put(msgParam.getKey(), msgParam.value);
-				}
-
-			} else if (msg instanceof MessageInfo) {
-				MessageInfo msgInfo = (MessageInfo) msg;
-				if ("sys_name".equals(msgInfo.getKey())) {
-					systemName = (String) msgInfo.value;
-				} else if ("ver_hw".equals(msgInfo.getKey())) {
-					hw_version = (String) msgInfo.value;
-				} else if ("ver_sw".equals(msgInfo.getKey())) {
-					sw_version = (String) msgInfo.value;
-				} else if ("time_ref_utc".equals(msgInfo.getKey())) {
-					utcTimeReference = ((long) ((Number) msgInfo.value).intValue()) * 1000 * 1000;
+					List<ParamUpdate> updateList = new ArrayList<ParamUpdate>();
+					updateList.add(new ParamUpdate(msgParam.getKey(), msgParam.value, lastTime));
+					parameterUpdates.put(msgParam.getKey(), updateList);
 				}
-
+			} else {
+				// add parameter to the parameters Map
+				parameters.put(msgParam.getKey(), msgParam.value);
 			}
-			timeStart=-1;
-		}
 
-		buffer.compact();
+		} else if (msg instanceof MessageInfo) {
+			MessageInfo msgInfo = (MessageInfo) msg;
+			if ("sys_name".equals(msgInfo.getKey())) {
+				systemName = (String) msgInfo.value;
+			} else if ("ver_hw".equals(msgInfo.getKey())) {
+				hw_version = (String) msgInfo.value;
+			} else if ("ver_sw".equals(msgInfo.getKey())) {
+				sw_version = (String) msgInfo.value;
+			} else if ("time_ref_utc".equals(msgInfo.getKey())) {
+				utcTimeReference = ((long) ((Number) msgInfo.value).intValue()) * 1000 * 1000;
+			}
 
+		}
 	}
 
 	public void buildSubscriptions() {
@@ -259,12 +306,15 @@ public class UlogMAVLinkParser {
 
 	public Object readMessage()  {
 
+		if (buffer.remaining() < 3)
+			return null;
+
 		int s1 = buffer.get() & 0xFF;
 		int s2 = buffer.get() & 0xFF;
 		int msgSize = s1 + (256 * s2);
 		int msgType = buffer.get() & 0xFF;
 
-		if (msgSize > buffer.remaining()-3) {
+		if (msgSize > buffer.remaining()) {
 			buffer.position(buffer.position()-3);
 			return null;
 		}
@@ -304,8 +354,8 @@ public class UlogMAVLinkParser {
 			buffer.position(buffer.position() + msgSize);
 			return null;
 		default:
-			//			buffer.position(buffer.position() + msgSize);
-			//			System.err.println("Unknown message type: " + msgType);
+			// e.g. flag bits or multi info of newer ULog versions
+			buffer.position(buffer.position() + msgSize);
 		}
 		return null;
 	}
@@ -5,31 +5,69 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 
 
 /**
  * User: ton Date: 03.06.13 Time: 14:51
+ *
+ * By default the file is memory mapped: 'buffer' is a read-only window of the file
+ * (up to WINDOW_SIZE bytes, so files over 2 GB are mapped in segments) and seeks
+ * within the window only move the buffer position. The heap backend reads through
+ * an 8 KB buffer instead.
  */
 public abstract class BinaryLogReader implements LogReader {
+    private static final long WINDOW_SIZE = 1L << 30;
+
     protected ByteBuffer buffer;
     protected SeekableByteChannel channel = null;
     protected long channelPosition = 0;
 
+    private final boolean mapped;
+    private long windowStart = 0;
+
     public BinaryLogReader(String fileName) throws IOException {
-        buffer = ByteBuffer.allocate(8192);
+        this(fileName, true);
+    }
+
+    public BinaryLogReader(String fileName, boolean mapped) throws IOException {
+        this.mapped = mapped;
+        buffer = ByteBuffer.allocate(mapped ? 0 : 8192);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.flip();
         channel = new RandomAccessFile(fileName, "r").getChannel();
     }
 
+    /**
+     * @return true if the file is memory mapped, false for the heap backend
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Close the file and drop the mapped window, so the mapping can be released
+     * (and the file deleted on Windows) without waiting for the reader to be collected.
+     */
     @Override
     public void close() throws IOException {
         channel.close();
         channel = null;
+        buffer = ByteBuffer.allocate(0);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = 0;
     }
 
     public int fillBuffer() throws IOException {
+        if (mapped) {
+            int remaining = buffer.remaining();
+            int n = map(position()) - remaining;
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            return n;
+        }
         buffer.compact();
         int n = channel.read(buffer);
         buffer.flip();
@@ -42,6 +80,12 @@ public abstract class BinaryLogReader implements LogReader {
 
     public void fillBuffer(int required) throws IOException {
         if (buffer.remaining() < required) {
+            if (mapped) {
+                if (map(position()) < required) {
+                    throw new EOFException();
+                }
+                return;
+            }
             buffer.compact();
             int n = channel.read(buffer);
             buffer.flip();
@@ -53,10 +97,24 @@ public abstract class BinaryLogReader implements LogReader {
     }
 
     protected long position() throws IOException {
+        if (mapped) {
+            return windowStart + buffer.position();
+        }
         return channelPosition - buffer.remaining();
     }
 
     protected int position(long pos) throws IOException {
+        if (mapped) {
+            if (pos >= windowStart && pos < windowStart + buffer.limit()) {
+                buffer.position((int) (pos - windowStart));
+            } else {
+                map(pos);
+            }
+            if (!buffer.hasRemaining()) {
+                throw new EOFException();
+            }
+            return buffer.remaining();
+        }
         buffer.clear();
         channel.position(pos);
         channelPosition = pos;
@@ -68,4 +126,19 @@ public abstract class BinaryLogReader implements LogReader {
         channelPosition += n;
         return n;
     }
+
+    /**
+     * Map the window starting at file position 'pos'.
+     *
+     * @return number of bytes available in the window
+     */
+    private int map(long pos) throws IOException {
+        FileChannel fc = (FileChannel) channel;
+        long size = Math.max(0, Math.min(fc.size() - pos, WINDOW_SIZE));
+        buffer = fc.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = pos;
+        channelPosition = pos + size;
+        return buffer.remaining();
+    }
 }
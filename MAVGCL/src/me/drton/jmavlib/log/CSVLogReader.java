@@ -3,36 +3,117 @@ package me.drton.jmavlib.log;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * User: ton Date: 10.06.14 Time: 12:46
+ *
+ * The file is memory mapped in windows of up to WINDOW_SIZE bytes which end at a line break, so rows never span
+ * two windows. On open the rows are indexed in parallel chunks split at line breaks: the index holds the file
+ * offset and the time of each row, seeks are a lookup (by row) or a binary search (by time). Values are parsed
+ * directly from the mapped bytes without creating Strings.
  */
 public class CSVLogReader implements LogReader {
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
     private RandomAccessFile file;
     private String[] fields;
     private Map<String, String> fieldsFormats;
-    private String delimiter = ";";
+    private byte delimiter = ';';
     private int columnTime = 0;
     private long sizeUpdates = -1;
     private long sizeMicroseconds = -1;
     private long startMicroseconds = -1;
 
+    private ByteBuffer[] windows;
+    private long[] windowStarts;
+    private int[] windowFirstRows;
+    private long[] rowOffsets = new long[0];
+    private long[] rowMaxTimes = new long[0];   // Running maximum of the row times
+    private int rows = 0;
+    private int row = 0;
+    private double[] rowValues;
+
     public CSVLogReader(String fileName) throws IOException, FormatErrorException {
         file = new RandomAccessFile(fileName, "r");
+        mapWindows();
         readFormats();
         updateStatistics();
     }
 
+    /**
+     * Map the file in windows ending at a line break.
+     */
+    private void mapWindows() throws IOException, FormatErrorException {
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        List<Long> starts = new ArrayList<Long>();
+        long start = 0;
+        while (start < size) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, WINDOW_SIZE));
+            int limit = buffer.limit();
+            if (start + limit < size) {
+                while (limit > 0 && buffer.get(limit - 1) != '\n') {
+                    limit--;
+                }
+                if (limit == 0) {
+                    throw new FormatErrorException("CSV line too long at " + start);
+                }
+                buffer.limit(limit);
+            }
+            buffers.add(buffer);
+            starts.add(start);
+            start += limit;
+        }
+        windows = buffers.toArray(new ByteBuffer[buffers.size()]);
+        windowStarts = new long[starts.size()];
+        for (int i = 0; i < windowStarts.length; i++) {
+            windowStarts[i] = starts.get(i);
+        }
+        windowFirstRows = new int[windows.length];
+    }
+
     private void readFormats() throws IOException, FormatErrorException {
-        String headerLine = file.readLine();
-        if (headerLine == null) {
+        if (windows.length == 0) {
             throw new FormatErrorException("Empty CSV file");
         }
-        fields = headerLine.split(delimiter);
+        ByteBuffer buffer = windows[0];
+        int end = lineEnd(buffer, 0);
+        byte[] header = new byte[end];
+        for (int i = 0; i < end; i++) {
+            header[i] = buffer.get(i);
+        }
+        String headerLine = new String(header, Charset.forName("latin1")).trim();
+        if (headerLine.isEmpty()) {
+            throw new FormatErrorException("Empty CSV file");
+        }
+        // ';' by default, ',' for files like the MAVGCL CSV export
+        if (headerLine.indexOf(';') < 0 && headerLine.indexOf(',') >= 0) {
+            delimiter = ',';
+        }
+        fields = headerLine.split(String.valueOf((char) delimiter));
+        rowValues = new double[fields.length];
         fieldsFormats = new HashMap<String, String>(fields.length);
         for (String field : fields) {
             fieldsFormats.put(field, "d");
@@ -47,80 +128,365 @@ public class CSVLogReader implements LogReader {
     @Override
     public boolean seek(long seekTime) throws FormatErrorException, IOException {
         if (seekTime == 0) {
-            file.seek(0);
-            file.readLine();
+            row = 0;
             return true;
         }
-        long t = 0;
-        Map<String, Object> data = new HashMap<String, Object>();
-        while (t < seekTime) {
-            data.clear();
-            long ptr = file.getFilePointer();
-            try {
-                t = readUpdate(data);
-            } catch (EOFException e) {
-                return false;
-            }
-            if (t > seekTime) {
-                file.seek(ptr);
-                return true;
+        // First row later than seekTime
+        int lo = 0;
+        int hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rowMaxTimes[mid] > seekTime) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
         }
-        return false;
+        if (lo == rows) {
+            return false;
+        }
+        row = lo;
+        return true;
+    }
+
+    /**
+     * Position the reader at the given row.
+     */
+    public void seekRow(int row) {
+        this.row = Math.max(0, Math.min(row, rows));
     }
 
+    /**
+     * @return number of the next row to be read
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Index the rows of all windows in parallel chunks split at line breaks.
+     */
     private void updateStatistics() throws IOException, FormatErrorException {
-        seek(0);
-        long packetsNum = 0;
-        long timeStart = -1;
-        long timeEnd = -1;
-        while (true) {
-            String[] values;
-            try {
-                values = readLineValues();
-            } catch (EOFException e) {
-                break;
+        List<ForkJoinTask<RowChunk>> tasks = new ArrayList<ForkJoinTask<RowChunk>>();
+        List<Integer> taskWindows = new ArrayList<Integer>();
+        for (int w = 0; w < windows.length; w++) {
+            final ByteBuffer buffer = windows[w];
+            int from = w == 0 ? nextLine(buffer, 0) : 0;
+            int limit = buffer.limit();
+            int chunks = Math.max(1, Math.min((limit - from) / MIN_CHUNK_SIZE,
+                    ForkJoinPool.commonPool().getParallelism() * 4));
+            for (int c = 0; c < chunks; c++) {
+                int to = c == chunks - 1 ? limit : nextLine(buffer, from + (limit - from) / (chunks - c));
+                final int chunkFrom = from;
+                final int chunkTo = to;
+                final long offset = windowStarts[w];
+                tasks.add(ForkJoinPool.commonPool().submit(() -> indexRows(buffer, chunkFrom, chunkTo, offset)));
+                taskWindows.add(w);
+                from = to;
+            }
+        }
+
+        List<RowChunk> chunks = new ArrayList<RowChunk>();
+        int total = 0;
+        try {
+            for (ForkJoinTask<RowChunk> task : tasks) {
+                RowChunk chunk = task.get();
+                chunks.add(chunk);
+                total += chunk.size;
             }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new FormatErrorException(e.getCause().getMessage());
+        }
 
-            if (values.length > columnTime) {
-                double v = Double.parseDouble(values[columnTime].replace(',', '.'));
-                long t = (long) (v * 1000000);
+        rowOffsets = new long[total];
+        rowMaxTimes = new long[total];
+        Arrays.fill(windowFirstRows, total);
+        long timeStart = -1;
+        long timeEnd = -1;
+        long maxTime = Long.MIN_VALUE;
+        int n = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            RowChunk chunk = chunks.get(i);
+            int w = taskWindows.get(i);
+            windowFirstRows[w] = Math.min(windowFirstRows[w], n);
+            System.arraycopy(chunk.offsets, 0, rowOffsets, n, chunk.size);
+            for (int j = 0; j < chunk.size; j++) {
+                long t = chunk.times[j];
                 if (timeStart < 0) {
                     timeStart = t;
                 }
                 timeEnd = t;
-                packetsNum++;
+                maxTime = Math.max(maxTime, t);
+                rowMaxTimes[n++] = maxTime;
             }
         }
+        // Windows without rows start where the next one does
+        for (int w = windowFirstRows.length - 2; w >= 0; w--) {
+            windowFirstRows[w] = Math.min(windowFirstRows[w], windowFirstRows[w + 1]);
+        }
+        rows = total;
         startMicroseconds = timeStart;
-        sizeUpdates = packetsNum;
+        sizeUpdates = total;
         sizeMicroseconds = timeEnd - timeStart;
         seek(0);
     }
 
-    @Override
-    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
-        String[] values = readLineValues();
+    private static class RowChunk {
+        long[] offsets = new long[1024];
+        long[] times = new long[1024];
+        int size = 0;
+
+        void add(long offset, long time) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            offsets[size] = offset;
+            times[size] = time;
+            size++;
+        }
+    }
+
+    private RowChunk indexRows(ByteBuffer buffer, int from, int to, long offset) {
+        RowChunk chunk = new RowChunk();
+        int pos = from;
+        while (pos < to) {
+            int end = lineEnd(buffer, pos);
+            if (end > pos && !(end == pos + 1 && buffer.get(pos) == '\r')) {
+                // Find the time column
+                int start = pos;
+                int column = 0;
+                while (column < columnTime && start < end) {
+                    if (buffer.get(start++) == delimiter) {
+                        column++;
+                    }
+                }
+                int fieldEnd = start;
+                while (fieldEnd < end && buffer.get(fieldEnd) != delimiter) {
+                    fieldEnd++;
+                }
+                double v = column == columnTime ? parseDouble(buffer, start, fieldEnd) : Double.NaN;
+                chunk.add(offset + pos, (long) (v * 1000000));
+            }
+            pos = end + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * @return position of the line break (or the limit) at or after 'pos'
+     */
+    private static int lineEnd(ByteBuffer buffer, int pos) {
+        int limit = buffer.limit();
+        while (pos < limit && buffer.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return start of the line following the one containing 'pos'
+     */
+    private static int nextLine(ByteBuffer buffer, int pos) {
+        return Math.min(lineEnd(buffer, pos) + 1, buffer.limit());
+    }
+
+    private int windowOf(int row) {
+        int w = windows.length - 1;
+        while (w > 0 && windowFirstRows[w] > row) {
+            w--;
+        }
+        return w;
+    }
+
+    /**
+     * Parse the fields of a row into 'values' by column, columns missing in the row are NaN.
+     *
+     * @return time of the row in us
+     */
+    private long parseRow(int row, double[] values) {
+        int w = windowOf(row);
+        ByteBuffer buffer = windows[w];
+        int pos = (int) (rowOffsets[row] - windowStarts[w]);
+        int end = lineEnd(buffer, pos);
+        Arrays.fill(values, Double.NaN);
         long t = 0;
-        for (int i = 0; i < values.length; i++) {
-            if (i < fields.length && !fields[i].isEmpty()) {
-                double v = Double.parseDouble(values[i].replace(',', '.'));
-                if (i == columnTime) {
+        int column = 0;
+        while (pos <= end && column < fields.length) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && buffer.get(fieldEnd) != delimiter) {
+                fieldEnd++;
+            }
+            if (!fields[column].isEmpty()) {
+                double v = parseDouble(buffer, pos, fieldEnd);
+                if (column == columnTime) {
                     t = (long) (v * 1000000);
-                } else {
-                    update.put(fields[i], v);
                 }
+                values[column] = v;
+            }
+            column++;
+            pos = fieldEnd + 1;
+        }
+        return t;
+    }
+
+    @Override
+    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
+        if (row >= rows) {
+            throw new EOFException();
+        }
+        long t = parseRow(row++, rowValues);
+        for (int i = 0; i < fields.length; i++) {
+            if (i != columnTime && !fields[i].isEmpty() && !Double.isNaN(rowValues[i])) {
+                update.put(fields[i], rowValues[i]);
             }
         }
         return t;
     }
 
-    private String[] readLineValues() throws IOException {
-        String line = file.readLine();
-        if (line == null) {
+    /**
+     * Read the next row into 'values' by column, without boxing.
+     *
+     * @param values array of at least getColumnNames().length elements
+     * @return time of the row in us
+     * @throws EOFException on end of file
+     */
+    public long readUpdate(double[] values) throws IOException {
+        if (row >= rows) {
             throw new EOFException();
         }
-        return line.split(delimiter);
+        return parseRow(row++, values);
+    }
+
+    /**
+     * Parse all rows in parallel chunks.
+     *
+     * @return values by column and row, NaN for missing values
+     */
+    public double[][] readColumns() throws IOException {
+        final double[][] columns = new double[fields.length][rows];
+        int chunks = Math.max(1, Math.min(rows / 10000, ForkJoinPool.commonPool().getParallelism() * 4));
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int c = 0; c < chunks; c++) {
+            final int from = (int) ((long) rows * c / chunks);
+            final int to = (int) ((long) rows * (c + 1) / chunks);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                double[] values = new double[fields.length];
+                for (int r = from; r < to; r++) {
+                    parseRow(r, values);
+                    for (int i = 0; i < values.length; i++) {
+                        columns[i][r] = values[i];
+                    }
+                }
+            }));
+        }
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return columns;
+    }
+
+    /**
+     * @return column names as in the header, index matches readUpdate(double[]) and readColumns()
+     */
+    public String[] getColumnNames() {
+        return fields;
+    }
+
+    /**
+     * Parse a decimal number (point or comma) from the bytes [from, to). Numbers whose significant digits are
+     * below 2^53 (15-16 digits) and whose decimal exponent is within +-22 are converted exactly without creating
+     * a String, others fall back to Double.parseDouble. Empty or invalid fields are NaN.
+     */
+    static double parseDouble(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) == ' ') {
+            from++;
+        }
+        while (to > from && (buffer.get(to - 1) == ' ' || buffer.get(to - 1) == '\r')) {
+            to--;
+        }
+        if (from == to) {
+            return Double.NaN;
+        }
+        int i = from;
+        boolean negative = false;
+        byte c = buffer.get(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp = 0;
+        boolean point = false;
+        boolean any = false;
+        boolean exact = true;
+        for (; i < to; i++) {
+            c = buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (point) {
+                        exp--;
+                    }
+                } else {
+                    exact &= c == '0';
+                    if (!point) {
+                        exp++;
+                    }
+                }
+            } else if ((c == '.' || c == ',') && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < to && (c == 'e' || c == 'E') && any) {
+            i++;
+            boolean expNegative = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                expNegative = buffer.get(i) == '-';
+                i++;
+            }
+            int e = 0;
+            int start = i;
+            while (i < to && (c = buffer.get(i)) >= '0' && c <= '9' && e < 10000) {
+                e = e * 10 + (c - '0');
+                i++;
+            }
+            exact &= i > start;
+            exp += expNegative ? -e : e;
+        }
+        if (any && exact && i == to && mantissa < (1L << 53) && exp >= -22 && exp <= 22) {
+            double v = exp < 0 ? mantissa / POW10[-exp] : mantissa * POW10[exp];
+            return negative ? -v : v;
+        }
+        return parseDoubleString(buffer, from, to);
+    }
+
+    private static double parseDoubleString(ByteBuffer buffer, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            char ch = (char) buffer.get(from + i);
+            chars[i] = ch == ',' ? '.' : ch;
+        }
+        try {
+            return Double.parseDouble(new String(chars));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
     }
 
     @Override
@@ -1,6 +1,13 @@
 package me.drton.jmavlib.log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Collections;
@@ -12,7 +19,7 @@ import java.util.Set;
 
 import me.drton.jmavlib.mavlink.MAVLinkDataType;
 import me.drton.jmavlib.mavlink.MAVLinkField;
-import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavlib.mavlink.MAVLinkFrame;
 import me.drton.jmavlib.mavlink.MAVLinkMessageDefinition;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
 import me.drton.jmavlib.mavlink.MAVLinkStream;
@@ -21,7 +28,13 @@ import me.drton.jmavlib.mavlink.MAVLinkStream;
  * User: ton Date: 25.07.14 Time: 21:43
  */
 public class MAVLinkLogReader implements LogReader {
+    private static final int INDEX_MAGIC = 0x4D4C4958;   // "MLIX"
+    private static final int INDEX_VERSION = 1;
+    private static final long INDEX_STRIDE = 64 * 1024;
+    public static final String INDEX_SUFFIX = ".idx";
+
     private RandomAccessFile file;
+    private TimeIndex index = null;
     private Map<String, String> fieldsFormats = new HashMap<String, String>();
     private MAVLinkStream stream;
     private Map<String, Object> parameters = new HashMap<String, Object>();
@@ -32,6 +45,15 @@ public class MAVLinkLogReader implements LogReader {
     private Set<Integer> skipMsgs = new HashSet<Integer>();
 
     public MAVLinkLogReader(String fileName, MAVLinkSchema schema) throws IOException, FormatErrorException {
+        this(fileName, schema, false);
+    }
+
+    /**
+     * @param useIndexFile read the log info and time index from a sidecar file (log name + ".idx") if it is
+     *                     up to date, otherwise scan the log and write the sidecar
+     */
+    public MAVLinkLogReader(String fileName, MAVLinkSchema schema, boolean useIndexFile)
+            throws IOException, FormatErrorException {
         String[] skipMsgNames = new String[]{
                 "PARAM_REQUEST_READ", "PARAM_REQUEST_LIST", "PARAM_VALUE", "PARAM_SET", "PARAM_VALUE",};
         for (String msgName : skipMsgNames) {
@@ -43,7 +65,14 @@ public class MAVLinkLogReader implements LogReader {
 
         file = new RandomAccessFile(fileName, "r");
         stream = new MAVLinkStream(schema, file.getChannel());
-        updateInfo();
+        File log = new File(fileName);
+        File indexFile = new File(fileName + INDEX_SUFFIX);
+        if (!useIndexFile || !readIndexFile(log, indexFile)) {
+            updateInfo();
+            if (useIndexFile) {
+                writeIndexFile(log, indexFile);
+            }
+        }
     }
 
     @Override
@@ -58,9 +87,15 @@ public class MAVLinkLogReader implements LogReader {
         if (seekTime == 0) {
             return true;
         }
+        // Start scanning at the last index entry before the time
+        int entry = index != null ? index.find(seekTime) : -1;
+        if (entry >= 0) {
+            stream.position(index.getPosition(entry));
+            time = Math.max(0, index.getTime(entry));
+        }
         while (true) {
             long pos = stream.position();
-            MAVLinkMessage msg = stream.read();
+            MAVLinkFrame msg = stream.next();
             if (msg == null) {
                 break;
             }
@@ -77,12 +112,12 @@ public class MAVLinkLogReader implements LogReader {
         return false;
     }
 
-    private String fieldName(MAVLinkMessage msg, MAVLinkField field) {
-        return "M" + msg.systemID + ":" + msg.getMsgName() + "." + field.name;
+    private String fieldName(MAVLinkFrame msg, MAVLinkField field) {
+        return "M" + msg.getSystemID() + ":" + msg.getMsgName() + "." + field.name;
     }
 
-    private void addMessageFormat(MAVLinkMessage msg) {
-        for (MAVLinkField field : msg.definition.fields) {
+    private void addMessageFormat(MAVLinkFrame msg) {
+        for (MAVLinkField field : msg.getDefinition().fields) {
             String type;
             switch (field.type) {
                 case CHAR:
@@ -126,7 +161,7 @@ public class MAVLinkLogReader implements LogReader {
         }
     }
 
-    private Object parseMavlinkParameter(MAVLinkMessage msg) {
+    private Object parseMavlinkParameter(MAVLinkFrame msg) {
         int type = msg.getInt("param_type");
         float value = msg.getFloat("param_value");
         if (type == MAVLinkDataType.FLOAT.id) {
@@ -140,19 +175,22 @@ public class MAVLinkLogReader implements LogReader {
 
     private void updateInfo() throws IOException, FormatErrorException {
         Set<String> messagesSysIDs = new HashSet<String>();
+        TimeIndex timeIndex = new TimeIndex(INDEX_STRIDE);
         seek(0);
         long packetsNum = 0;
         long timeStart = -1;
         long timeEnd = -1;
         while (true) {
-            MAVLinkMessage msg;
-            msg = stream.read();
+            MAVLinkFrame msg;
+            long pos = stream.position();
+            msg = stream.next();
             if (msg == null) {
                 break;
             }
 
             long t = getTime(msg);
             if (t >= 0) {
+                timeIndex.add(t, pos);
                 if (timeStart < 0) {
                     timeStart = t;
                 }
@@ -163,9 +201,9 @@ public class MAVLinkLogReader implements LogReader {
             }
 
             if (msg.getMsgName().equals("PARAM_VALUE")) {
-                parameters.put("M" + msg.systemID + ":" + msg.getString("param_id"), parseMavlinkParameter(msg));
-            } else if (!skipMsgs.contains(msg.msgID)) {
-                String msgSysID = "M" + msg.systemID + ":" + msg.getMsgName();
+                parameters.put("M" + msg.getSystemID() + ":" + msg.getString("param_id"), parseMavlinkParameter(msg));
+            } else if (!skipMsgs.contains(msg.getMsgType())) {
+                String msgSysID = "M" + msg.getSystemID() + ":" + msg.getMsgName();
                 if (!messagesSysIDs.contains(msgSysID)) {
                     messagesSysIDs.add(msgSysID);
                     addMessageFormat(msg);
@@ -175,34 +213,101 @@ public class MAVLinkLogReader implements LogReader {
         startMicroseconds = timeStart;
         sizeUpdates = packetsNum;
         sizeMicroseconds = timeEnd - timeStart;
+        index = timeIndex;
         seek(0);
     }
 
-    private long getTime(MAVLinkMessage msg) {
+    private boolean readIndexFile(File log, File indexFile) {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readLong() != log.length() || in.readLong() != log.lastModified()) {
+                return false;
+            }
+            startMicroseconds = in.readLong();
+            sizeMicroseconds = in.readLong();
+            sizeUpdates = in.readLong();
+            Map<String, String> formats = new HashMap<String, String>();
+            for (int n = in.readInt(); n > 0; n--) {
+                formats.put(in.readUTF(), in.readUTF());
+            }
+            Map<String, Object> params = new HashMap<String, Object>();
+            for (int n = in.readInt(); n > 0; n--) {
+                String name = in.readUTF();
+                params.put(name, in.readBoolean() ? (Object) in.readFloat() : (Object) in.readInt());
+            }
+            TimeIndex timeIndex = TimeIndex.read(in);
+            fieldsFormats = formats;
+            parameters = params;
+            index = timeIndex;
+            seek(0);
+            return true;
+        } catch (Exception e) {
+            System.err.println(String.format("%s: %s", indexFile, e));
+            return false;
+        }
+    }
+
+    private void writeIndexFile(File log, File indexFile) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(log.length());
+            out.writeLong(log.lastModified());
+            out.writeLong(startMicroseconds);
+            out.writeLong(sizeMicroseconds);
+            out.writeLong(sizeUpdates);
+            out.writeInt(fieldsFormats.size());
+            for (Map.Entry<String, String> e : fieldsFormats.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            out.writeInt(parameters.size());
+            for (Map.Entry<String, Object> e : parameters.entrySet()) {
+                out.writeUTF(e.getKey());
+                boolean isFloat = e.getValue() instanceof Float;
+                out.writeBoolean(isFloat);
+                if (isFloat) {
+                    out.writeFloat((Float) e.getValue());
+                } else {
+                    out.writeInt(((Number) e.getValue()).intValue());
+                }
+            }
+            index.write(out);
+        } catch (IOException e) {
+            // The sidecar is optional, e.g. the log directory may be read-only
+            System.err.println(String.format("%s: %s", indexFile, e));
+            indexFile.delete();
+        }
+    }
+
+    private long getTime(MAVLinkFrame msg) {
         MAVLinkField field;
-        field = msg.definition.fieldsByName.get("time_usec");
+        field = msg.getDefinition().fieldsByName.get("time_usec");
         if (field != null) {
-            return ((Number) msg.get(field)).longValue();
+            return msg.getLong(field);
         }
-        field = msg.definition.fieldsByName.get("time_boot_ms");
+        field = msg.getDefinition().fieldsByName.get("time_boot_ms");
         if (field != null) {
-            return ((Number) msg.get(field)).longValue() * 1000;
+            return msg.getLong(field) * 1000;
         }
         return -1;
     }
 
     @Override
     public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
-        MAVLinkMessage msg = stream.read();
+        MAVLinkFrame msg = stream.next();
         if (msg == null) {
             throw new EOFException();
         }
-        for (MAVLinkField field : msg.definition.fields) {
+        for (MAVLinkField field : msg.getDefinition().fields) {
             update.put(fieldName(msg, field), msg.get(field));
-            long t = getTime(msg);
-            if (t >= 0 && t > time) {
-                time = t;
-            }
+        }
+        long t = getTime(msg);
+        if (t >= 0 && t > time) {
+            time = t;
         }
         return time;
     }
@@ -0,0 +1,110 @@
+package me.drton.jmavlib.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of (timestamp, file position) pairs for seeking in logs.
+ * <p>
+ * Timestamped messages are offered in file order, an entry is kept at most every 'stride' bytes. Each entry
+ * holds the highest timestamp of all messages before its position, so the index stays sorted even if timestamps
+ * of different messages are slightly out of order. A seek binary-searches the entry and then scans at most about
+ * 'stride' bytes.
+ */
+public class TimeIndex {
+    private final long stride;
+    private long[] times = new long[1024];
+    private long[] positions = new long[1024];
+    private int size = 0;
+    private long maxTime = Long.MIN_VALUE;
+    private long lastPosition = 0;
+
+    /**
+     * @param stride minimal distance of entries in bytes
+     */
+    public TimeIndex(long stride) {
+        this.stride = stride;
+    }
+
+    /**
+     * Offer a timestamped message, must be called in file order.
+     */
+    public void add(long time, long position) {
+        if (size == 0 || position - lastPosition >= stride) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            times[size] = maxTime;
+            positions[size] = position;
+            size++;
+            lastPosition = position;
+        }
+        if (time > maxTime) {
+            maxTime = time;
+        }
+    }
+
+    /**
+     * Find the last entry before which no message is later than 'time'.
+     *
+     * @return entry number or -1 if the index is empty
+     */
+    public int find(long time) {
+        int lo = 0;
+        int hi = size - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= time) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return highest timestamp of the messages before the entry, Long.MIN_VALUE for none
+     */
+    public long getTime(int entry) {
+        return times[entry];
+    }
+
+    public long getPosition(int entry) {
+        return positions[entry];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(stride);
+        out.writeLong(maxTime);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(times[i]);
+            out.writeLong(positions[i]);
+        }
+    }
+
+    public static TimeIndex read(DataInputStream in) throws IOException {
+        TimeIndex index = new TimeIndex(in.readLong());
+        index.maxTime = in.readLong();
+        int n = in.readInt();
+        index.times = new long[Math.max(n, 1)];
+        index.positions = new long[Math.max(n, 1)];
+        for (int i = 0; i < n; i++) {
+            index.times[i] = in.readLong();
+            index.positions[i] = in.readLong();
+        }
+        index.size = n;
+        index.lastPosition = n > 0 ? index.positions[n - 1] : 0;
+        return index;
+    }
+}
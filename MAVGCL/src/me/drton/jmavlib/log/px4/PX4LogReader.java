@@ -11,6 +11,7 @@ import java.util.Set;
 
 import me.drton.jmavlib.log.BinaryLogReader;
 import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavlib.log.TimeIndex;
 
 /**
  * User: ton Date: 03.06.13 Time: 14:18
@@ -19,6 +20,7 @@ public class PX4LogReader extends BinaryLogReader {
     private static final int HEADER_LEN = 3;
     private static final byte HEADER_HEAD1 = (byte) 0xA3;
     private static final byte HEADER_HEAD2 = (byte) 0x95;
+    private static final long INDEX_STRIDE = 64 * 1024;
 
     private long dataStart = 0;
     private boolean formatPX4 = false;
@@ -36,6 +38,7 @@ public class PX4LogReader extends BinaryLogReader {
     private List<Exception> errors = new ArrayList<Exception>();
     private String tsName = null;
     private boolean tsMicros;
+    private TimeIndex index = null;
 
     private static Set<String> hideMsgs = new HashSet<String>();
     private static Map<String, String> formatNames = new HashMap<String, String>();
@@ -65,7 +68,14 @@ public class PX4LogReader extends BinaryLogReader {
     }
 
     public PX4LogReader(String fileName) throws IOException, FormatErrorException {
-        super(fileName);
+        this(fileName, true);
+    }
+
+    /**
+     * @param mapped true to memory map the file, false to read it through a heap buffer
+     */
+    public PX4LogReader(String fileName, boolean mapped) throws IOException, FormatErrorException {
+        super(fileName, mapped);
         readFormats();
         updateStatistics();
     }
@@ -111,6 +121,7 @@ public class PX4LogReader extends BinaryLogReader {
     }
 
     private void updateStatistics() throws IOException, FormatErrorException {
+        TimeIndex timeIndex = new TimeIndex(INDEX_STRIDE);
         seek(0);
         long packetsNum = 0;
         long timeStart = -1;
@@ -119,6 +130,7 @@ public class PX4LogReader extends BinaryLogReader {
         StringBuilder versionStr = new StringBuilder();
         while (true) {
             PX4LogMessage msg;
+            long pos = position();
             try {
                 msg = readMessage();
             } catch (EOFException e) {
@@ -129,6 +141,7 @@ public class PX4LogReader extends BinaryLogReader {
                 if ("TIME".equals(msg.description.name)) {
                     long t = msg.getLong(0);
                     time = t;
+                    timeIndex.add(t, pos);
                     if (timeStart < 0) {
                         timeStart = t;
                     }
@@ -137,6 +150,7 @@ public class PX4LogReader extends BinaryLogReader {
             } else {
                 long t = getAPMTimestamp(msg);
                 if (t > 0) {
+                    timeIndex.add(t, pos);
                     if (timeStart < 0) {
                         timeStart = t;
                     }
@@ -209,6 +223,7 @@ public class PX4LogReader extends BinaryLogReader {
         if (!formatPX4) {
             version.put("FW", versionStr.toString());
         }
+        index = timeIndex;
         seek(0);
     }
 
@@ -220,7 +235,11 @@ public class PX4LogReader extends BinaryLogReader {
             time = 0;
             return true;
         }
-        // Seek to specified timestamp without parsing all messages
+        // Start at the last index entry before the time, then scan without parsing all messages
+        int entry = index != null ? index.find(seekTime) : -1;
+        if (entry >= 0) {
+            position(index.getPosition(entry));
+        }
         try {
             while (true) {
                 long pos = position();
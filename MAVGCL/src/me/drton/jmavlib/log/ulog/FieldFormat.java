@@ -6,9 +6,25 @@ import java.nio.ByteBuffer;
  * Created by ton on 26.10.15.
  */
 public class FieldFormat {
+    public static final byte TYPE_FLOAT = 0;
+    public static final byte TYPE_DOUBLE = 1;
+    public static final byte TYPE_INT8 = 2;
+    public static final byte TYPE_UINT8 = 3;
+    public static final byte TYPE_INT16 = 4;
+    public static final byte TYPE_UINT16 = 5;
+    public static final byte TYPE_INT32 = 6;
+    public static final byte TYPE_UINT32 = 7;
+    public static final byte TYPE_INT64 = 8;
+    public static final byte TYPE_UINT64 = 9;
+    public static final byte TYPE_CHAR = 10;
+    public static final byte TYPE_OTHER = -1;
+
+    private static final int[] TYPE_SIZES = { 4, 8, 1, 1, 2, 2, 4, 4, 8, 8, 1 };
+
     public final String name;
     public final String type;
     public final int size; //array length (-1 if not an array)
+    public final byte typeTag;
 
     public FieldFormat(String formatStr) {
         String[] p = formatStr.split(" ");
@@ -22,12 +38,39 @@ public class FieldFormat {
             type = p[0];
             size = -1;
         }
+        typeTag = getTypeTag(type);
     }
 
     public FieldFormat(String name, String type, int size) {
         this.name = name;
         this.type = type;
         this.size = size;
+        this.typeTag = getTypeTag(type);
+    }
+
+    private static byte getTypeTag(String type) {
+        switch (type) {
+        case "float":    return TYPE_FLOAT;
+        case "double":   return TYPE_DOUBLE;
+        case "int8_t":
+        case "bool":     return TYPE_INT8;
+        case "uint8_t":  return TYPE_UINT8;
+        case "int16_t":  return TYPE_INT16;
+        case "uint16_t": return TYPE_UINT16;
+        case "int32_t":  return TYPE_INT32;
+        case "uint32_t": return TYPE_UINT32;
+        case "int64_t":  return TYPE_INT64;
+        case "uint64_t": return TYPE_UINT64;
+        case "char":     return TYPE_CHAR;
+        default:         return TYPE_OTHER;
+        }
+    }
+
+    /**
+     * @return size of a single element in bytes, -1 for nested or unknown types
+     */
+    public int getTypeSize() {
+        return typeTag < 0 ? -1 : TYPE_SIZES[typeTag];
     }
 
     public String getFullTypeString() {
@@ -67,33 +110,41 @@ public class FieldFormat {
     }
 
     private Object getSingleValue(ByteBuffer buffer) {
-        Object v;
-        if (type.equals("float")) {
-            v = buffer.getFloat();
-        } else if (type.equals("double")) {
-            v = buffer.getDouble();
-        } else if (type.equals("int8_t") || type.equals("bool")) {
-            v = (int) buffer.get();
-        } else if (type.equals("uint8_t")) {
-            v = buffer.get() & 0xFF;
-        } else if (type.equals("int16_t")) {
-            v = (int) buffer.getShort();
-        } else if (type.equals("uint16_t")) {
-            v = buffer.getShort() & 0xFFFF;
-        } else if (type.equals("int32_t")) {
-            v = buffer.getInt();
-        } else if (type.equals("uint32_t")) {
-            v = buffer.getInt() & 0xFFFFFFFFl;
-        } else if (type.equals("int64_t")) {
-            v = buffer.getLong();
-        } else if (type.equals("uint64_t")) {
-            v = buffer.getLong();
-        } else if (type.equals("char")) {
-            v = buffer.get();
-        } else {
+        switch (typeTag) {
+        case TYPE_FLOAT:  return buffer.getFloat();
+        case TYPE_DOUBLE: return buffer.getDouble();
+        case TYPE_INT8:   return (int) buffer.get();
+        case TYPE_UINT8:  return buffer.get() & 0xFF;
+        case TYPE_INT16:  return (int) buffer.getShort();
+        case TYPE_UINT16: return buffer.getShort() & 0xFFFF;
+        case TYPE_INT32:  return buffer.getInt();
+        case TYPE_UINT32: return buffer.getInt() & 0xFFFFFFFFl;
+        case TYPE_INT64:  return buffer.getLong();
+        case TYPE_UINT64: return buffer.getLong();
+        case TYPE_CHAR:   return buffer.get();
+        default:
             throw new RuntimeException("Unsupported type: " + type);
         }
-        return v;
+    }
+
+    /**
+     * Read a single element at an absolute position without boxing.
+     */
+    public static double getDouble(ByteBuffer buffer, int pos, byte typeTag) {
+        switch (typeTag) {
+        case TYPE_FLOAT:  return buffer.getFloat(pos);
+        case TYPE_DOUBLE: return buffer.getDouble(pos);
+        case TYPE_INT8:   return buffer.get(pos);
+        case TYPE_UINT8:  return buffer.get(pos) & 0xFF;
+        case TYPE_INT16:  return buffer.getShort(pos);
+        case TYPE_UINT16: return buffer.getShort(pos) & 0xFFFF;
+        case TYPE_INT32:  return buffer.getInt(pos);
+        case TYPE_UINT32: return buffer.getInt(pos) & 0xFFFFFFFFl;
+        case TYPE_INT64:
+        case TYPE_UINT64: return buffer.getLong(pos);
+        case TYPE_CHAR:   return buffer.get(pos);
+        default:          return Double.NaN;
+        }
     }
 
     public String toString() {
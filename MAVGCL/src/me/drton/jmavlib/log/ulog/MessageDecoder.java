@@ -0,0 +1,118 @@
+package me.drton.jmavlib.log.ulog;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decoder for DATA messages of one subscription. Offsets and types of all
+ * elements are resolved once from the MessageFormat; decoding writes the values
+ * into a shared primitive buffer at their field ids without boxing.
+ */
+public class MessageDecoder {
+    private final int timestampOffset;
+    private final int[] offsets;
+    private final byte[] types;
+    private final int[] ids;
+
+    /**
+     * @param format    flattened message format
+     * @param prefix    topic name including multi id, e.g. "vehicle_local_position_0"
+     * @param fieldIds  field name to id map, new names are added with the next free id
+     */
+    public MessageDecoder(MessageFormat format, String prefix, Map<String, Integer> fieldIds) {
+        int count = 0;
+        for (FieldFormat field : format.fields) {
+            if (isDecoded(field))
+                count += field.isArray() ? field.size : 1;
+        }
+        offsets = new int[count];
+        types = new byte[count];
+        ids = new int[count];
+
+        int offset = 0, timestamp = -1, n = 0;
+        for (FieldFormat field : format.fields) {
+            int size = field.getTypeSize();
+            if (size < 0)
+                throw new RuntimeException("Unsupported type: " + field.type);
+            if (!isDecoded(field)) {
+                offset += field.size >= 0 ? size * field.size : size;
+                continue;
+            }
+            if ("timestamp".equals(field.name))
+                timestamp = offset;
+            if (field.isArray()) {
+                for (int j = 0; j < field.size; j++) {
+                    add(n++, prefix + "." + field.name + "[" + j + "]", offset, field.typeTag, fieldIds);
+                    offset += size;
+                }
+            } else {
+                add(n++, prefix + "." + field.name, offset, field.typeTag, fieldIds);
+                offset += size;
+            }
+        }
+        timestampOffset = timestamp;
+    }
+
+    /** strings and padding are skipped */
+    private static boolean isDecoded(FieldFormat field) {
+        if (field.name.startsWith("_padding"))
+            return false;
+        return field.typeTag != FieldFormat.TYPE_CHAR || field.size < 0;
+    }
+
+    private void add(int n, String name, int offset, byte type, Map<String, Integer> fieldIds) {
+        Integer id = fieldIds.get(name);
+        if (id == null) {
+            id = fieldIds.size();
+            fieldIds.put(name, id);
+        }
+        offsets[n] = offset;
+        types[n] = type;
+        ids[n] = id;
+    }
+
+    /**
+     * @return true if one of the given field ids is decoded by this decoder
+     */
+    public boolean containsAny(Set<Integer> fieldIds) {
+        for (int id : ids) {
+            if (fieldIds.contains(id))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the given field id is decoded by this decoder
+     */
+    public boolean contains(int fieldId) {
+        for (int id : ids) {
+            if (id == fieldId)
+                return true;
+        }
+        return false;
+    }
+
+    public boolean hasTimestamp() {
+        return timestampOffset >= 0;
+    }
+
+    /**
+     * Decode the message body starting at the absolute buffer position 'start'.
+     *
+     * @return timestamp of the message
+     */
+    public long decode(ByteBuffer buffer, int start, double[] values) {
+        for (int i = 0; i < offsets.length; i++)
+            values[ids[i]] = FieldFormat.getDouble(buffer, start + offsets[i], types[i]);
+        return buffer.getLong(start + timestampOffset);
+    }
+
+    /**
+     * Read only the timestamp of the message body starting at 'start'.
+     */
+    public long getTimestamp(ByteBuffer buffer, int start) {
+        return buffer.getLong(start + timestampOffset);
+    }
+}
@@ -17,6 +17,7 @@ public class MessageFormat {
     public ArrayList<FieldFormat> fields;
     public final Map<String, Integer> fieldsMap = new HashMap<String, Integer>();
     private boolean nestedParsingDone = false;
+    private int timestampOffset = -2;
 
     /** max multi id of all logged messages with this format */
     public int maxMultiID = 0;
@@ -82,6 +83,27 @@ public class MessageFormat {
         nestedParsingDone = true;
     }
 
+    /**
+     * @return offset of the timestamp field in the message body, -1 if there is none
+     */
+    public int getTimestampOffset() {
+        if (timestampOffset == -2) {
+            int offset = 0, ofs = -1;
+            for (FieldFormat field : fields) {
+                if ("timestamp".equals(field.name)) {
+                    ofs = offset;
+                    break;
+                }
+                int size = field.getTypeSize();
+                if (size < 0)
+                    break;
+                offset += field.size >= 0 ? size * field.size : size;
+            }
+            timestampOffset = ofs;
+        }
+        return timestampOffset;
+    }
+
     public List<Object> parseBody(ByteBuffer buffer) {
         List<Object> data = new ArrayList<Object>(fields.size());
         for (FieldFormat field : fields) {
@@ -6,8 +6,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,7 @@ public class ULogReader extends BinaryLogReader {
     static final int HDRLEN = 3;
     static final int FILE_MAGIC_HEADER_LENGTH = 16;
 
+    private String fileName;
     private String systemName = "PX4";
     private long dataStart = 0;
     private Map<String, MessageFormat> messageFormats = new HashMap<String, MessageFormat>();
@@ -52,6 +56,14 @@ public class ULogReader extends BinaryLogReader {
     private ArrayList<Subscription> messageSubscriptions = new ArrayList<Subscription>();
 
     private Map<String, String> fieldsList = null;
+
+    /** primitive decoders. Index is the message id */
+    private MessageDecoder[] decoders = new MessageDecoder[0];
+    /** decoders of the topics required by setRequiredFields, all if not set */
+    private MessageDecoder[] selected = new MessageDecoder[0];
+    private MessageDecoder updated = null;
+    private Map<String, Integer> fieldIds = new HashMap<String, Integer>();
+    private double[] values = new double[0];
     private long sizeUpdates = -1;
     private long sizeMicroseconds = -1;
     private long startMicroseconds = -1;
@@ -89,23 +101,117 @@ public class ULogReader extends BinaryLogReader {
 
     /** Index for fast(er) seeking */
     private ArrayList<SeekTime> seekTimes = null;
+    /** Running maximum of the seek index timestamps, sorted for binary search */
+    private long[] seekMaxTimes = new long[0];
 
     private class SeekTime {
-        public SeekTime(long t, long pos) {
+        public SeekTime(long t, long pos, int id) {
             timestamp = t;
             position = pos;
+            msgID = id;
         }
 
         public long timestamp;
         public long position;
+        public int msgID;
+    }
+
+    /** Timestamp and id of a DATA message, read without parsing its body */
+    private static class DataHeader {
+        public int msgID;
+        public long timestamp;
     }
 
+    private final DataHeader dataHeader = new DataHeader();
+
     public ULogReader(String fileName) throws IOException, FormatErrorException {
-        super(fileName);
+        this(fileName, true);
+    }
+
+    /**
+     * @param mapped true to memory map the file, false to read it through a heap buffer
+     */
+    public ULogReader(String fileName, boolean mapped) throws IOException, FormatErrorException {
+        super(fileName, mapped);
+        this.fileName = fileName;
         parameterUpdates = new HashMap<String, List<ParamUpdate>>();
         updateStatistics();
     }
 
+    private ULogReader(ULogReader source) throws IOException {
+        super(source.fileName, source.isMapped());
+        fileName = source.fileName;
+        systemName = source.systemName;
+        dataStart = source.dataStart;
+        messageFormats = source.messageFormats;
+        messageSubscriptions = source.messageSubscriptions;
+        fieldsList = source.fieldsList;
+        sizeUpdates = source.sizeUpdates;
+        sizeMicroseconds = source.sizeMicroseconds;
+        startMicroseconds = source.startMicroseconds;
+        utcTimeReference = source.utcTimeReference;
+        logStartTimestamp = source.logStartTimestamp;
+        nestedParsingDone = source.nestedParsingDone;
+        version = source.version;
+        parameters = source.parameters;
+        loggedMessages = source.loggedMessages;
+        parameterUpdates = source.parameterUpdates;
+        seekTimes = source.seekTimes;
+        seekMaxTimes = source.seekMaxTimes;
+        decoders = source.decoders;
+        selected = source.selected;
+        fieldIds = source.fieldIds;
+        values = new double[fieldIds.size()];
+        Arrays.fill(values, Double.NaN);
+        position(dataStart);
+    }
+
+    /**
+     * Open an independent reader on the same file, sharing the parsed formats and
+     * the seek index, so that parts of the log can be read concurrently.
+     *
+     * @return new reader positioned at the start of the data section
+     * @throws IOException
+     */
+    public ULogReader duplicate() throws IOException {
+        return new ULogReader(this);
+    }
+
+    /**
+     * @return number of data messages in the seek index
+     */
+    public int getSeekCount() {
+        return seekTimes.size();
+    }
+
+    /**
+     * @return timestamp of the data message at the given seek index
+     */
+    public long getSeekTimestamp(int index) {
+        return seekTimes.get(index).timestamp;
+    }
+
+    /**
+     * @return file position of the data message at the given seek index
+     */
+    public long getSeekPosition(int index) {
+        return seekTimes.get(index).position;
+    }
+
+    /**
+     * Position the reader at the data message with the given seek index.
+     */
+    public void seekIndex(int index) throws IOException {
+        position(seekTimes.get(index).position);
+    }
+
+    /**
+     * @return file position of the next message to be read
+     */
+    public long getPosition() throws IOException {
+        return position();
+    }
+
     @Override
     public String getFormat() {
         return "ULog";
@@ -198,7 +304,7 @@ public class ULogReader extends BinaryLogReader {
             Object msg;
             long pos = position();
             try {
-                msg = readMessage();
+                msg = readMessage(true);
             } catch (EOFException e) {
                 break;
             }
@@ -265,12 +371,12 @@ public class ULogReader extends BinaryLogReader {
                     utcTimeReference = ((long) ((Number) msgInfo.value).intValue()) * 1000 * 1000;
                 }
 
-            } else if (msg instanceof MessageData) {
+            } else if (msg instanceof DataHeader) {
                 if (dataStart == 0) {
                     dataStart = pos;
                 }
-                MessageData msgData = (MessageData) msg;
-                seekTimes.add(new SeekTime(msgData.timestamp, pos));
+                DataHeader msgData = (DataHeader) msg;
+                seekTimes.add(new SeekTime(msgData.timestamp, pos, msgData.msgID));
 
                 if (timeStart < 0) {
                     timeStart = msgData.timestamp;
@@ -307,6 +413,13 @@ public class ULogReader extends BinaryLogReader {
                 }
             }
         }
+        seekMaxTimes = new long[seekTimes.size()];
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < seekMaxTimes.length; i++) {
+            maxTime = Math.max(maxTime, seekTimes.get(i).timestamp);
+            seekMaxTimes[i] = maxTime;
+        }
+        buildDecoders();
         startMicroseconds = timeStart;
         sizeUpdates = packetsNum;
         sizeMicroseconds = timeEnd - timeStart;
@@ -321,6 +434,127 @@ public class ULogReader extends BinaryLogReader {
         }
     }
 
+    private void buildDecoders() {
+        decoders = new MessageDecoder[messageSubscriptions.size()];
+        for (int k = 0; k < messageSubscriptions.size(); ++k) {
+            Subscription s = messageSubscriptions.get(k);
+            if (s == null || s.format.name.charAt(0) == '_')
+                continue;
+            try {
+                MessageDecoder decoder = new MessageDecoder(s.format, s.format.name + "_" + s.multiID, fieldIds);
+                if (decoder.hasTimestamp())
+                    decoders[k] = decoder;
+            } catch (RuntimeException e) {
+                errors.add(e);
+            }
+        }
+        selected = decoders;
+        values = new double[fieldIds.size()];
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /**
+     * Restrict readUpdate() to topics containing at least one of the given fields,
+     * DATA messages of all other subscriptions are skipped without decoding.
+     *
+     * @param fields field names like "vehicle_local_position_0.z", null for all topics
+     */
+    public void setRequiredFields(Collection<String> fields) {
+        if (fields == null) {
+            selected = decoders;
+            return;
+        }
+        Set<Integer> ids = new HashSet<Integer>();
+        for (String field : fields) {
+            Integer id = fieldIds.get(field);
+            if (id != null)
+                ids.add(id);
+        }
+        MessageDecoder[] s = new MessageDecoder[decoders.length];
+        for (int k = 0; k < decoders.length; k++) {
+            if (decoders[k] != null && decoders[k].containsAny(ids))
+                s[k] = decoders[k];
+        }
+        selected = s;
+    }
+
+    /**
+     * @return true if the data message at the given seek index is read by readUpdate()
+     */
+    public boolean isSeekSelected(int index) {
+        int msgID = seekTimes.get(index).msgID;
+        return msgID < selected.length && selected[msgID] != null;
+    }
+
+    /**
+     * @return id of a field like "vehicle_local_position_0.z" in the value buffer, -1 if not logged
+     */
+    public int getFieldId(String field) {
+        Integer id = fieldIds.get(field);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return buffer holding the last value of each field by field id, NaN if not yet read
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return true if the given field id was decoded by the last readUpdate()
+     */
+    public boolean isUpdated(int fieldId) {
+        return updated != null && updated.contains(fieldId);
+    }
+
+    /**
+     * Read the next DATA message into the value buffer. Other messages are skipped.
+     *
+     * @return timestamp of the message
+     * @throws IOException  on IO error
+     * @throws EOFException on end of stream
+     */
+    public long readUpdate() throws IOException, FormatErrorException {
+        return readUpdate(Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the next DATA message starting before file position 'end' into the value buffer.
+     *
+     * @return timestamp of the message, -1 if 'end' is reached
+     * @throws IOException  on IO error
+     * @throws EOFException on end of stream
+     */
+    public long readUpdate(long end) throws IOException, FormatErrorException {
+        while (true) {
+            if (position() >= end)
+                return -1;
+            fillBuffer(HDRLEN);
+            long pos = position();
+            int s1 = buffer.get() & 0xFF;
+            int s2 = buffer.get() & 0xFF;
+            int msgSize = s1 + (256 * s2);
+            int msgType = buffer.get() & 0xFF;
+            try {
+                fillBuffer(msgSize);
+            } catch (EOFException e) {
+                errors.add(new FormatErrorException(pos, "Unexpected end of file"));
+                throw e;
+            }
+            int start = buffer.position();
+            buffer.position(start + msgSize);
+            if (msgType != MESSAGE_TYPE_DATA)
+                continue;
+            int msgID = buffer.getShort(start) & 0xFFFF;
+            MessageDecoder decoder = msgID < selected.length ? selected[msgID] : null;
+            if (decoder != null) {
+                updated = decoder;
+                return decoder.decode(buffer, start + 2, values);
+            }
+        }
+    }
+
     @Override
     public boolean seek(long seekTime) throws IOException, FormatErrorException {
         position(dataStart);
@@ -328,15 +562,23 @@ public class ULogReader extends BinaryLogReader {
             return true;
         }
 
-        //find the position in seekTime. We could speed this up further by
-        //using a binary search
-        for (SeekTime sk : seekTimes) {
-            if (sk.timestamp >= seekTime) {
-                position(sk.position);
-                return true;
+        // The first message at or after seekTime is the first one where the running
+        // maximum of the timestamps reaches seekTime
+        int lo = 0;
+        int hi = seekMaxTimes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seekMaxTimes[mid] >= seekTime) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
         }
-        return false;
+        if (lo == seekMaxTimes.length) {
+            return false;
+        }
+        position(seekTimes.get(lo).position);
+        return true;
     }
 
     private void applyMsg(Map<String, Object> update, MessageData msg) {
@@ -381,6 +623,13 @@ public class ULogReader extends BinaryLogReader {
      * @throws EOFException on end of stream
      */
     public Object readMessage() throws IOException, FormatErrorException {
+        return readMessage(false);
+    }
+
+    /**
+     * @param timestampOnly return DATA messages as DataHeader without parsing the body
+     */
+    private Object readMessage(boolean timestampOnly) throws IOException, FormatErrorException {
         while (true) {
             fillBuffer(HDRLEN);
             long pos = position();
@@ -409,6 +658,14 @@ public class ULogReader extends BinaryLogReader {
                     buffer.position(buffer.position() + msgSize - 1);
                     continue;
                 }
+                int timestampOffset = subscription.format.getTimestampOffset();
+                if (timestampOnly && timestampOffset >= 0) {
+                    dataHeader.msgID = msgID;
+                    dataHeader.timestamp = buffer.getLong(buffer.position() + timestampOffset);
+                    buffer.position(buffer.position() + msgSize - 2);
+                    msg = dataHeader;
+                    break;
+                }
                 msg = new MessageData(subscription.format, buffer, subscription.multiID);
                 break;
             case MESSAGE_TYPE_INFO:
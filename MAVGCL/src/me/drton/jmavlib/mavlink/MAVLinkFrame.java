@@ -0,0 +1,284 @@
+package me.drton.jmavlib.mavlink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Flyweight view on a MAVLink 1 or 2 frame inside the ring buffer of a {@link MAVLinkStream}.
+ * <p>
+ * Field values are read in place using the offsets of {@link MAVLinkField}, nothing is copied. The frame is
+ * only valid until the next call of {@link MAVLinkStream#next()}, use {@link #toMessage()} to keep it.
+ * Fields truncated by MAVLink 2 read as zero.
+ */
+public class MAVLinkFrame {
+    private final MAVLinkSchema schema;
+    private final ByteBuffer buffer;
+    private final int mask;
+    private Charset charset = Charset.forName("latin1");
+
+    private MAVLinkMessageDefinition definition;
+    private int version;
+    private int start;
+    private int payload;
+    private int length;
+    private boolean wrapped;
+    private int msgID;
+    private int systemID;
+    private int componentID;
+    private byte sequence;
+
+    MAVLinkFrame(MAVLinkSchema schema, ByteBuffer buffer) {
+        this.schema = schema;
+        this.buffer = buffer;
+        this.mask = buffer.capacity() - 1;
+    }
+
+    /**
+     * Point the flyweight to a validated frame.
+     *
+     * @param start ring index of the start sign
+     * @param headerLen header length including start sign (6 for v1, 10 for v2)
+     * @param payloadLen received payload length
+     */
+    void wrap(MAVLinkMessageDefinition definition, int start, int headerLen, int payloadLen) {
+        this.definition = definition;
+        this.msgID = definition.id;
+        this.start = start;
+        this.version = headerLen == MAVLinkMessage.HEADER_LENGTH ? 1 : 2;
+        this.payload = (start + headerLen) & mask;
+        this.length = payloadLen;
+        this.wrapped = payload + payloadLen > buffer.capacity();
+        int seqOffset = version == 1 ? 2 : 4;
+        this.sequence = byteAt(seqOffset);
+        this.systemID = byteAt(seqOffset + 1) & 0xFF;
+        this.componentID = byteAt(seqOffset + 2) & 0xFF;
+    }
+
+    private byte byteAt(int offset) {
+        return buffer.get((start + offset) & mask);
+    }
+
+    public MAVLinkMessageDefinition getDefinition() {
+        return definition;
+    }
+
+    public int getMsgType() {
+        return msgID;
+    }
+
+    public String getMsgName() {
+        return definition.name;
+    }
+
+    public int getSystemID() {
+        return systemID;
+    }
+
+    public int getComponentID() {
+        return componentID;
+    }
+
+    public int getSequence() {
+        return sequence & 0xFF;
+    }
+
+    /**
+     * @return 1 for MAVLink 1 frames, 2 for MAVLink 2 frames
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return payload length as received, may be shorter than the definition for MAVLink 2
+     */
+    public int getPayloadLength() {
+        return length;
+    }
+
+    /**
+     * Read up to 8 little endian bytes of the payload, bytes behind the received payload are zero.
+     */
+    private long raw(int offset, int n) {
+        if (!wrapped && offset + n <= length) {
+            int p = payload + offset;
+            switch (n) {
+                case 1:
+                    return buffer.get(p) & 0xFFL;
+                case 2:
+                    return buffer.getShort(p) & 0xFFFFL;
+                case 4:
+                    return buffer.getInt(p) & 0xFFFFFFFFL;
+                default:
+                    return buffer.getLong(p);
+            }
+        }
+        // Frame wraps around the end of the ring or the field is truncated
+        long v = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            v <<= 8;
+            if (offset + i < length) {
+                v |= buffer.get((payload + offset + i) & mask) & 0xFFL;
+            }
+        }
+        return v;
+    }
+
+    private long getLong(MAVLinkDataType type, int offset) {
+        switch (type) {
+            case CHAR:
+            case INT8:
+                return (byte) raw(offset, 1);
+            case UINT8:
+                return raw(offset, 1);
+            case INT16:
+                return (short) raw(offset, 2);
+            case UINT16:
+                return raw(offset, 2);
+            case INT32:
+                return (int) raw(offset, 4);
+            case UINT32:
+                return raw(offset, 4);
+            case INT64:
+            case UINT64:
+                return raw(offset, 8);
+            case FLOAT:
+                return (long) Float.intBitsToFloat((int) raw(offset, 4));
+            case DOUBLE:
+                return (long) Double.longBitsToDouble(raw(offset, 8));
+            default:
+                throw new RuntimeException("Unknown type: " + type);
+        }
+    }
+
+    private double getDouble(MAVLinkDataType type, int offset) {
+        switch (type) {
+            case FLOAT:
+                return Float.intBitsToFloat((int) raw(offset, 4));
+            case DOUBLE:
+                return Double.longBitsToDouble(raw(offset, 8));
+            default:
+                return getLong(type, offset);
+        }
+    }
+
+    public long getLong(MAVLinkField field) {
+        return getLong(field.type, field.offset);
+    }
+
+    public long getLong(MAVLinkField field, int index) {
+        return getLong(field.type, field.offset + index * field.type.size);
+    }
+
+    public int getInt(MAVLinkField field) {
+        return (int) getLong(field.type, field.offset);
+    }
+
+    public int getInt(MAVLinkField field, int index) {
+        return (int) getLong(field, index);
+    }
+
+    public double getDouble(MAVLinkField field) {
+        return getDouble(field.type, field.offset);
+    }
+
+    public double getDouble(MAVLinkField field, int index) {
+        return getDouble(field.type, field.offset + index * field.type.size);
+    }
+
+    public float getFloat(MAVLinkField field) {
+        return (float) getDouble(field.type, field.offset);
+    }
+
+    public float getFloat(MAVLinkField field, int index) {
+        return (float) getDouble(field, index);
+    }
+
+    public String getString(MAVLinkField field) {
+        byte[] buf = new byte[field.isArray() ? field.arraySize : 1];
+        int n = 0;
+        while (n < buf.length && (buf[n] = (byte) raw(field.offset + n, 1)) != 0) {
+            n++;
+        }
+        return new String(buf, 0, n, charset);
+    }
+
+    public long getLong(String fieldName) {
+        return getLong(definition.fieldsByName.get(fieldName));
+    }
+
+    public int getInt(String fieldName) {
+        return getInt(definition.fieldsByName.get(fieldName));
+    }
+
+    public double getDouble(String fieldName) {
+        return getDouble(definition.fieldsByName.get(fieldName));
+    }
+
+    public float getFloat(String fieldName) {
+        return getFloat(definition.fieldsByName.get(fieldName));
+    }
+
+    public String getString(String fieldName) {
+        return getString(definition.fieldsByName.get(fieldName));
+    }
+
+    /**
+     * Boxed field value, same types as {@link MAVLinkMessage#get(MAVLinkField)}.
+     */
+    public Object get(MAVLinkField field) {
+        if (field.isArray()) {
+            if (field.type == MAVLinkDataType.CHAR) {
+                return getString(field);
+            } else if (field.type == MAVLinkDataType.UINT8) {
+                byte[] buf = new byte[field.arraySize];
+                for (int i = 0; i < buf.length; i++) {
+                    buf[i] = (byte) raw(field.offset + i, 1);
+                }
+                return buf;
+            } else {
+                Object[] res = new Object[field.arraySize];
+                for (int i = 0; i < field.arraySize; i++) {
+                    res[i] = getValue(field.type, field.offset + i * field.type.size);
+                }
+                return res;
+            }
+        }
+        return getValue(field.type, field.offset);
+    }
+
+    private Object getValue(MAVLinkDataType type, int offset) {
+        switch (type) {
+            case CHAR:
+                return (byte) getLong(type, offset);
+            case UINT32:
+            case UINT64:
+            case INT64:
+                return getLong(type, offset);
+            case FLOAT:
+                return (float) getDouble(type, offset);
+            case DOUBLE:
+                return getDouble(type, offset);
+            default:
+                return (int) getLong(type, offset);
+        }
+    }
+
+    /**
+     * Copy the frame into a standalone message.
+     */
+    public MAVLinkMessage toMessage() {
+        byte[] data = new byte[definition.payloadLength];
+        for (int i = 0; i < length; i++) {
+            data[i] = buffer.get((payload + i) & mask);
+        }
+        int crcPos = payload + length;
+        int crc = (buffer.get(crcPos & mask) & 0xFF) | (buffer.get((crcPos + 1) & mask) & 0xFF) << 8;
+        return new MAVLinkMessage(schema, definition, data, sequence, systemID, componentID, crc);
+    }
+
+    @Override
+    public String toString() {
+        return toMessage().toString();
+    }
+}
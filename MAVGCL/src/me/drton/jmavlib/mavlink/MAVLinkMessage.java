@@ -63,6 +63,23 @@ public class MAVLinkMessage {
         this.msgID = definition.id;
     }
 
+    /**
+     * Create message from a decoded payload (see {@link MAVLinkFrame#toMessage()})
+     */
+    MAVLinkMessage(MAVLinkSchema schema, MAVLinkMessageDefinition definition, byte[] payload, byte sequence,
+            int systemID, int componentID, int crc) {
+        this.schema = schema;
+        this.definition = definition;
+        this.msgID = definition.id;
+        this.payload = payload;
+        this.payloadBB = ByteBuffer.wrap(payload);
+        payloadBB.order(schema.getByteOrder());
+        this.sequence = sequence;
+        this.systemID = systemID;
+        this.componentID = componentID;
+        this.crc = crc;
+    }
+
     /**
      * Create message from buffer (for parsing)
      *
@@ -95,18 +112,18 @@ public class MAVLinkMessage {
             buffer.position(buffer.position() + payloadLen + CRC_LENGTH);
             throw new MAVLinkUnknownMessage(String.format("Unknown message: %s", msgID));
         }
-        if (payloadLen != definition.payloadLength) {
+        if (payloadLen != definition.basePayloadLength) {
             buffer.position(buffer.position() + payloadLen + CRC_LENGTH);
             throw new MAVLinkUnknownMessage(
                     String.format("Invalid payload len for msg %s (%s): %s, should be %s", definition.name, msgID,
-                            payloadLen, definition.payloadLength));
+                            payloadLen, definition.basePayloadLength));
         }
         this.payload = new byte[definition.payloadLength];
-        buffer.get(payload);
+        buffer.get(payload, 0, payloadLen);
         crc = Short.reverseBytes(buffer.getShort()) & 0xffff;
         int endPos = buffer.position();
         buffer.position(startPos);
-        int crcCalc = calculateCRC(buffer);
+        int crcCalc = calculateCRC(buffer, payloadLen);
         buffer.position(endPos);
         if (crc != crcCalc) {
             throw new MAVLinkUnknownMessage(
@@ -119,17 +136,18 @@ public class MAVLinkMessage {
 
     public ByteBuffer encode(byte sequence) {
         this.sequence = sequence;
-        ByteBuffer buf = ByteBuffer.allocate(payload.length + NON_PAYLOAD_LENGTH);
+        // MAVLink 1 frame, extension fields are not sent
+        ByteBuffer buf = ByteBuffer.allocate(definition.basePayloadLength + NON_PAYLOAD_LENGTH);
         buf.order(schema.getByteOrder());
         buf.put(START_OF_FRAME);
-        buf.put((byte) definition.payloadLength);
+        buf.put((byte) definition.basePayloadLength);
         buf.put(sequence);
         buf.put((byte) systemID);
         buf.put((byte) componentID);
         buf.put((byte) msgID);
-        buf.put(payload);
+        buf.put(payload, 0, definition.basePayloadLength);
         buf.flip();
-        crc = calculateCRC(buf);
+        crc = calculateCRC(buf, definition.basePayloadLength);
         buf.limit(buf.capacity());
         buf.put((byte) crc);
         buf.put((byte) (crc >> 8));
@@ -141,12 +159,13 @@ public class MAVLinkMessage {
      * Calculate CRC of the message, buffer position should be set to start of the message.
      *
      * @param buf
+     * @param payloadLen payload length of the frame
      * @return CRC
      */
-    private int calculateCRC(ByteBuffer buf) {
+    private int calculateCRC(ByteBuffer buf, int payloadLen) {
         buf.get();  // Skip start sign
         int c = 0xFFFF;
-        for (int i = 0; i < definition.payloadLength + HEADER_LENGTH - 1; i++) {
+        for (int i = 0; i < payloadLen + HEADER_LENGTH - 1; i++) {
             c = MAVLinkCRC.accumulateCRC(buf.get(), c);
         }
         c = MAVLinkCRC.accumulateCRC(definition.extraCRC, c);
@@ -14,25 +14,44 @@ public class MAVLinkMessageDefinition {
     public final Map<String, MAVLinkField> fieldsByName;
     public final MAVLinkField[] fields;
     public final int payloadLength;
+    public final int basePayloadLength;
+    public final int baseFields;
 
     public MAVLinkMessageDefinition(int id, String name, MAVLinkField[] fields) {
+        this(id, name, fields, fields.length);
+    }
+
+    /**
+     * Message definition with MAVLink 2 extension fields.
+     * @param fields base fields in wire order followed by the extension fields
+     * @param baseFields number of base fields, extensions are not part of the extra CRC and v1 frames
+     */
+    public MAVLinkMessageDefinition(int id, String name, MAVLinkField[] fields, int baseFields) {
         this.id = id;
         this.name = name;
         this.fields = fields;
         this.fieldsByName = new HashMap<String, MAVLinkField>(fields.length);
+        this.baseFields = baseFields;
         int len = 0;
-        for (MAVLinkField field : fields) {
+        int baseLen = 0;
+        for (int i = 0; i < fields.length; i++) {
+            MAVLinkField field = fields[i];
             fieldsByName.put(field.name, field);
             field.offset = len;
             len += field.size;
+            if (i < baseFields) {
+                baseLen = len;
+            }
         }
         this.payloadLength = len;
+        this.basePayloadLength = baseLen;
         this.extraCRC = calculateExtraCRC();
     }
 
     private byte calculateExtraCRC() {
         String extraCRCStr = name + " ";
-        for (MAVLinkField field : fields) {
+        for (int i = 0; i < baseFields; i++) {
+            MAVLinkField field = fields[i];
             extraCRCStr += field.type.ctype + " " + field.name + " ";
             if (field.isArray()) {
                 extraCRCStr += (char) field.arraySize;
@@ -3,9 +3,12 @@ package me.drton.jmavlib.mavlink;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -14,6 +17,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
@@ -23,6 +27,9 @@ import org.xml.sax.SAXException;
 public class MAVLinkSchema {
     private ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
     private final MAVLinkMessageDefinition[] definitions = new MAVLinkMessageDefinition[256];
+    // MAVLink 2 IDs above 255, sorted for lookup without boxing
+    private int[] extendedIDs = new int[0];
+    private MAVLinkMessageDefinition[] extendedDefinitions = new MAVLinkMessageDefinition[0];
     private final Map<String, MAVLinkMessageDefinition> definitionsByName
             = new HashMap<String, MAVLinkMessageDefinition>();
     private DocumentBuilder xmlBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -57,20 +64,34 @@ public class MAVLinkSchema {
             Element msg = (Element) msgElems.item(i);
             int msgID = Integer.parseInt(msg.getAttribute("id"));
             String msgName = msg.getAttribute("name");
-            NodeList fieldsElems = msg.getElementsByTagName("field");
-            MAVLinkField[] fields = new MAVLinkField[fieldsElems.getLength()];
-            for (int j = 0; j < fieldsElems.getLength(); j++) {
-                Element fieldElem = (Element) fieldsElems.item(j);
+            List<MAVLinkField> fields = new ArrayList<MAVLinkField>();
+            int baseFields = -1;
+            NodeList children = msg.getChildNodes();
+            for (int j = 0; j < children.getLength(); j++) {
+                if (children.item(j).getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                Element fieldElem = (Element) children.item(j);
+                if (fieldElem.getTagName().equals("extensions")) {
+                    // MAVLink 2 extension fields follow in declaration order
+                    baseFields = fields.size();
+                    continue;
+                }
+                if (!fieldElem.getTagName().equals("field")) {
+                    continue;
+                }
                 String[] typeStr = fieldElem.getAttribute("type").split("\\[");
                 MAVLinkDataType fieldType = MAVLinkDataType.fromCType(typeStr[0]);
                 int arraySize = -1;
                 if (typeStr.length > 1) {
                     arraySize = Integer.parseInt(typeStr[1].split("\\]")[0]);
                 }
-                MAVLinkField field = new MAVLinkField(fieldType, arraySize, fieldElem.getAttribute("name"));
-                fields[j] = field;
+                fields.add(new MAVLinkField(fieldType, arraySize, fieldElem.getAttribute("name")));
+            }
+            if (baseFields < 0) {
+                baseFields = fields.size();
             }
-            Arrays.sort(fields, new Comparator<MAVLinkField>() {
+            Collections.sort(fields.subList(0, baseFields), new Comparator<MAVLinkField>() {
                 @Override
                 public int compare(MAVLinkField field2, MAVLinkField field1) {
                     // Sort on type size
@@ -82,14 +103,19 @@ public class MAVLinkSchema {
                     return 0;
                 }
             });
-            if (msgID >= 0 && msgID < 256) {
-                addMessageDefinition(new MAVLinkMessageDefinition(msgID, msgName, fields));
+            if (msgID >= 0 && msgID <= 0xFFFFFF) {
+                addMessageDefinition(new MAVLinkMessageDefinition(msgID, msgName,
+                        fields.toArray(new MAVLinkField[fields.size()]), baseFields));
             }
         }
     }
 
     public MAVLinkMessageDefinition getMessageDefinition(int msgID) {
-        return definitions[msgID];
+        if (msgID < 256) {
+            return msgID < 0 ? null : definitions[msgID];
+        }
+        int i = Arrays.binarySearch(extendedIDs, msgID);
+        return i < 0 ? null : extendedDefinitions[i];
     }
 
     public MAVLinkMessageDefinition getMessageDefinition(String msgName) {
@@ -101,7 +127,21 @@ public class MAVLinkSchema {
     }
 
     public void addMessageDefinition(MAVLinkMessageDefinition definition) {
-        definitions[definition.id] = definition;
+        if (definition.id < 256) {
+            definitions[definition.id] = definition;
+        } else {
+            int i = Arrays.binarySearch(extendedIDs, definition.id);
+            if (i < 0) {
+                i = -i - 1;
+                int n = extendedIDs.length;
+                extendedIDs = Arrays.copyOf(extendedIDs, n + 1);
+                extendedDefinitions = Arrays.copyOf(extendedDefinitions, n + 1);
+                System.arraycopy(extendedIDs, i, extendedIDs, i + 1, n - i);
+                System.arraycopy(extendedDefinitions, i, extendedDefinitions, i + 1, n - i);
+                extendedIDs[i] = definition.id;
+            }
+            extendedDefinitions[i] = definition;
+        }
         definitionsByName.put(definition.name, definition);
     }
 }
@@ -1,7 +1,6 @@
 package me.drton.jmavlib.mavlink;
 
 import java.io.IOException;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.FileChannel;
@@ -10,16 +9,31 @@ import java.nio.channels.FileChannel;
  * User: ton Date: 03.06.14 Time: 12:31
  */
 public class MAVLinkStream {
+    public final static byte START_OF_FRAME_V2 = (byte) 0xFD;
+    public final static int HEADER_LENGTH_V2 = 10;
+    public final static int SIGNATURE_LENGTH = 13;
+    private final static int INCOMPAT_FLAG_SIGNED = 0x01;
+    private final static int BUFFER_SIZE = 16384;   // Power of two, holds many frames of max. 280 bytes
+
     private final MAVLinkSchema schema;
     private final ByteChannel channel;
     private byte txSeq = 0;
-    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer fillBuffer;
+    private final int mask = BUFFER_SIZE - 1;
+    private long head = 0;  // Next byte to parse
+    private long tail = 0;  // Next byte to fill
+    private final MAVLinkFrame frame;
+    private long errors = 0;
+    private long unknown = 0;
     private boolean debug = false;
 
     public MAVLinkStream(MAVLinkSchema schema, ByteChannel channel) {
         this.schema = schema;
         this.channel = channel;
-        buffer.flip();
+        buffer.order(schema.getByteOrder());
+        fillBuffer = buffer.duplicate();
+        frame = new MAVLinkFrame(schema, buffer);
     }
 
     public void setDebug(boolean debug) {
@@ -43,41 +57,128 @@ public class MAVLinkStream {
      * @throws java.io.IOException on IO error
      */
     public MAVLinkMessage read() throws IOException {
+        MAVLinkFrame f = next();
+        return f != null ? f.toMessage() : null;
+    }
+
+    /**
+     * Read next MAVLink 1 or 2 frame without copying. Corrupted frames and frames of unknown messages are skipped
+     * by syncing on the next byte. Signatures are skipped but not verified.
+     *
+     * @return flyweight frame, valid until the next call, or null if no more frames available at the moment
+     * @throws java.io.IOException on IO error
+     */
+    public MAVLinkFrame next() throws IOException {
         while (true) {
-            try {
-                return new MAVLinkMessage(schema, buffer);
-            } catch (MAVLinkProtocolException e) {
-                // Message is corrupted, try to sync on the next byte
-                if (debug) {
-                    System.err.println(String.format("%s: %s", channel, e));
+            int available = (int) (tail - head);
+            if (available < MAVLinkMessage.NON_PAYLOAD_LENGTH) {
+                if (!fill()) {
+                    return null;
                 }
-            } catch (MAVLinkUnknownMessage e) {
-                // Message looks ok but with another protocol, skip it
-                if (debug) {
-                    System.err.println(String.format("%s: %s", channel, e));
+                continue;
+            }
+            byte startSign = buffer.get((int) head & mask);
+            int headerLen;
+            if (startSign == MAVLinkMessage.START_OF_FRAME) {
+                headerLen = MAVLinkMessage.HEADER_LENGTH;
+            } else if (startSign == START_OF_FRAME_V2) {
+                headerLen = HEADER_LENGTH_V2;
+            } else {
+                head++;
+                continue;
+            }
+            int payloadLen = byteAt(1);
+            int frameLen = headerLen + payloadLen + MAVLinkMessage.CRC_LENGTH;
+            if (headerLen == HEADER_LENGTH_V2 && (byteAt(2) & INCOMPAT_FLAG_SIGNED) != 0) {
+                frameLen += SIGNATURE_LENGTH;
+            }
+            if (available < frameLen) {
+                if (!fill()) {
+                    return null;
                 }
-            } catch (BufferUnderflowException e) {
-                // Try to refill buffer
-                buffer.compact();
-                int n = 0;
-                try {
-                    n = channel.read(buffer);
-                } catch (IOException ioe) {
-                    // In case of exception don't forget to flip the buffer
-                    buffer.flip();
-                    throw ioe;
+                continue;
+            }
+            int msgID = headerLen == HEADER_LENGTH_V2 ? byteAt(7) | byteAt(8) << 8 | byteAt(9) << 16 : byteAt(5);
+            MAVLinkMessageDefinition definition = schema.getMessageDefinition(msgID);
+            if (definition == null) {
+                // Another protocol or a false start sign, CRC can't be checked so sync on the next byte
+                if (debug) {
+                    System.err.println(String.format("%s: Unknown message: %s", channel, msgID));
                 }
-                buffer.flip();
-                if (n <= 0) {
-                    return null;
+                unknown++;
+                head++;
+                continue;
+            }
+            boolean valid = headerLen == HEADER_LENGTH_V2
+                    ? payloadLen <= definition.payloadLength
+                    : payloadLen == definition.basePayloadLength;
+            if (!valid || !checkCRC(headerLen + payloadLen, definition.extraCRC)) {
+                // Message is corrupted, try to sync on the next byte
+                if (debug) {
+                    System.err.println(String.format("%s: Invalid frame for msg %s (%s), len %s", channel,
+                            definition.name, msgID, payloadLen));
                 }
+                errors++;
+                head++;
+                continue;
             }
+            frame.wrap(definition, (int) head & mask, headerLen, payloadLen);
+            head += frameLen;
+            return frame;
         }
     }
 
+    private int byteAt(int offset) {
+        return buffer.get((int) (head + offset) & mask) & 0xFF;
+    }
+
+    /**
+     * Check X.25 CRC of the frame at head in place, CRC covers all bytes after the start sign.
+     */
+    private boolean checkCRC(int crcOffset, byte extraCRC) {
+        int c = MAVLinkCRC.X25_INIT_CRC;
+        for (int i = 1; i < crcOffset; i++) {
+            c = MAVLinkCRC.accumulateCRC(buffer.get((int) (head + i) & mask), c);
+        }
+        c = MAVLinkCRC.accumulateCRC(extraCRC, c);
+        return c == (byteAt(crcOffset) | byteAt(crcOffset + 1) << 8);
+    }
+
+    /**
+     * Read from the channel into the free part of the ring up to its end.
+     *
+     * @return false if the channel has no data at the moment
+     */
+    private boolean fill() throws IOException {
+        int pos = (int) tail & mask;
+        int free = BUFFER_SIZE - (int) (tail - head);
+        fillBuffer.limit(Math.min(BUFFER_SIZE, pos + free));
+        fillBuffer.position(pos);
+        int n = channel.read(fillBuffer);
+        if (n <= 0) {
+            return false;
+        }
+        tail += n;
+        return true;
+    }
+
+    /**
+     * @return number of frames dropped because of invalid length or CRC
+     */
+    public long getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * @return number of start signs skipped because the message is not in the schema
+     */
+    public long getUnknownCount() {
+        return unknown;
+    }
+
     public long position() throws IOException {
         if (channel instanceof FileChannel) {
-            return ((FileChannel) channel).position() + buffer.position() - buffer.limit();
+            return ((FileChannel) channel).position() - (tail - head);
         } else {
             throw new UnsupportedOperationException();
         }
@@ -86,8 +187,8 @@ public class MAVLinkStream {
     public void position(long pos) throws IOException {
         if (channel instanceof FileChannel) {
             ((FileChannel) channel).position(pos);
-            buffer.clear();
-            buffer.flip();
+            head = 0;
+            tail = 0;
         } else {
             throw new UnsupportedOperationException();
         }